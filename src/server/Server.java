@@ -20,6 +20,8 @@ import system.qa.Machine;
 import system.qa.UncorrectInputException;
 import system.qa.UncorrectQuestionException;
 import system.qa.UncorrectTypeException;
+import system.search.Searcher;
+import system.search.UnknownIndexException;
 
 /**
  * Server
@@ -45,9 +47,9 @@ public class Server extends Thread
     protected Socket socket;
     
     /**
-	 * Machine
+	 * Machine shared by every connection (it keeps nothing of the questions it answers)
 	 */
-    protected Machine machine;
+    protected static final Machine machine = new Machine();
 	
 
 	/**
@@ -58,7 +60,6 @@ public class Server extends Thread
 	{
 		//Initialize fields
     	this.socket = socket;
-    	machine = new Machine();
 		
 		//Begin execution calling run() method
 		start();
@@ -99,17 +100,15 @@ public class Server extends Thread
 				tokens.add(line);
 			}
 			
-			//Search index
+			//Search index (passed with the question, so other connections are not affected)
 			String searchIndex = tokens.get(0);
 			
-			if (!searchIndex.equals(machine.getSearchIndex())) machine.changeSearchIndex(searchIndex);
-			
 			for (int i = 1; i < tokens.size(); i++)
 			{
 				query.append(tokens.get(i).trim()).append("\n");
 			}
 			
-			out.println(machine.getAnswer(query.toString()));
+			out.println(machine.getAnswer(query.toString(), searchIndex));
 			
 		}
 		catch (IOException e)
@@ -133,6 +132,10 @@ public class Server extends Thread
 		{
 			out.println("Illegal access!");
 		}
+		catch (UnknownIndexException e)
+		{
+			out.println("Index not available!");
+		}
 		catch (IllegalArgumentException e)
 		{
 			out.println("Unprocessable data!");
@@ -202,7 +205,7 @@ public class Server extends Thread
 
 	/**
 	 * Access point of the server
-	 * @param args Args
+	 * @param args Names of the index directories served besides the default one (opened at startup: the other names are refused)
 	 */
     public static void main(String[] args)
 	{
@@ -213,6 +216,23 @@ public class Server extends Thread
     	try
 		{
 			server = new ServerSocket(PORT_NUMBER);
+			
+			//Open the default index and the ones required once, before the first client asks for them: only these are served
+			List<String> indexes = new ArrayList<String>();
+			indexes.add(Searcher.DEFAULT_INDEX);
+			for (String index : args) indexes.add(index);
+			for (String index : indexes)
+			{
+				try
+				{
+					Searcher.register(index);
+				}
+				catch (IOException ex)
+				{
+					log.warn("Unable to open the index " + index, ex);
+				}
+			}
+			
 			while (true)
 			{
 				Socket socket = server.accept();
@@ -5,8 +5,10 @@ import system.search.Searcher;
 import system.Query;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.Collections;
+import java.util.HashSet;
 
 import org.apache.lucene.queryparser.classic.ParseException;
 
@@ -23,7 +25,10 @@ abstract public class AbstractElement implements Element, Comparable<AbstractEle
 	 */
 	protected static final int MAX = 30000;
 	
-	protected Searcher s = Searcher.getInstance();
+	/**
+	 * Searcher of the index this element comes from
+	 */
+	protected Searcher s;
 	
 	/**
 	 * String value of ID
@@ -35,11 +40,27 @@ abstract public class AbstractElement implements Element, Comparable<AbstractEle
 	 */
 	protected String birthPlace;
 	
+	/**
+	 * Every property of this element, loaded with a single fetch when the index has the entity layout
+	 */
+	protected Map<String, Set<String>> entity;
+	
 	/**
 	 * Constructor with the ID
 	 * @param id String value of ID
 	 */
-	public AbstractElement(String id) {this.id = id;}
+	public AbstractElement(String id) {this(id, Searcher.getInstance());}
+	
+	/**
+	 * Constructor with the ID and the searcher of the index
+	 * @param id String value of ID
+	 * @param s Searcher of the index this element comes from
+	 */
+	public AbstractElement(String id, Searcher s)
+	{
+		this.id = id;
+		this.s = s;
+	}
 	
 	@Override
 	public boolean isPerson() throws IOException, NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException,
@@ -60,11 +81,38 @@ abstract public class AbstractElement implements Element, Comparable<AbstractEle
 	@Override
 	public int compareTo(AbstractElement e) {return id.compareTo(e.id);}
 	
+	@Override
+	public boolean equals(Object o) {return o instanceof AbstractElement && id.equals(((AbstractElement) o).id);}
+	
+	@Override
+	public int hashCode() {return id.hashCode();}
+	
+	/**
+	 * Get the values of a property of this element (all properties are fetched at once if the index has the entity layout)
+	 * @param field String value of the field where to search
+	 * @return Set of values (empty if the element does not have the property)
+	 * @throws IOException
+	 * @throws ParseException
+	 * @throws UncorrectInputException
+	 */
+	protected Set<String> getValues(String field) throws IOException, ParseException, UncorrectInputException
+	{
+		if (entity == null && s.isEntityLayout()) entity = s.getEntity(this);
+		if (entity == null) return s.getQuery(new Query(Topic.class, field, this, Searcheable.KEY), true);
+		Set<String> values = entity.get(field);
+		return values == null ? Collections.<String>emptySet() : values;
+	}
+	
+	@Override
+	public Set<String> findProperties(String field) throws IOException, ParseException, UncorrectInputException
+	{
+		return getValues(field);
+	}
+	
 	@Override
 	public Set<String> getProperties(String field) throws NotFoundException, IOException, ParseException, UncorrectInputException
 	{
-		Query q = new Query(Topic.class, field, this, Searcheable.KEY);
-		Set<String> set = s.getQuery(q, true);
+		Set<String> set = findProperties(field);
 		if (set.size() > 0) return set;
 		throw new NotFoundException();
 	}
@@ -83,7 +131,7 @@ abstract public class AbstractElement implements Element, Comparable<AbstractEle
 	public Set<String> getLabels(Language lang) throws IOException, UncorrectFormatLanguage, NoSuchMethodException, SecurityException, InstantiationException,
 	IllegalAccessException, IllegalArgumentException, InvocationTargetException, ParseException, NotFoundException, UncorrectInputException
 	{
-		Set<String> set = new TreeSet<String>();
+		Set<String> set = new HashSet<String>();
 		set.add(id);
 		return set;
 	}
@@ -64,6 +64,16 @@ public interface Element
 	 * @throws org.apache.lucene.queryparser.classic.ParseException 
 	 */
 	Set<String> getProperties(String field) throws NotFoundException, IOException, ParseException, UncorrectInputException, org.apache.lucene.queryparser.classic.ParseException;
+	
+	/**
+	 * Get the set of properties linked to this object, without throwing if there are not
+	 * @param field String value of the field where to search
+	 * @return Set of properties linked to this object (empty if there are not)
+	 * @throws IOException 
+	 * @throws UncorrectInputException 
+	 * @throws org.apache.lucene.queryparser.classic.ParseException 
+	 */
+	Set<String> findProperties(String field) throws IOException, UncorrectInputException, org.apache.lucene.queryparser.classic.ParseException;
 
 	/**
 	 * Know if this element is a person
@@ -27,6 +27,16 @@ public class Query extends AbstractElement
 	 */
 	protected Searcheable search;
 	
+	/**
+	 * Value of the limit meaning that every result is required
+	 */
+	public static final int NO_LIMIT = Integer.MAX_VALUE;
+	
+	/**
+	 * Max number of elements to be returned by the Searcher
+	 */
+	protected int limit = NO_LIMIT;
+	
 	/**
 	 * Default operations of the constructors
 	 * @param c Type of each element to be returned by the Searcher
@@ -73,6 +83,20 @@ public class Query extends AbstractElement
 		this.e = e;
 		defaultConstrOptions(c, field, search);
 	}
+	
+	/**
+	 * Constructor with a limit (the Searcher stops as soon as it has found enough elements)
+	 * @param c Type of each element to be returned by the Searcher
+	 * @param field String value of field where to search for the answer
+	 * @param e Element to be searched
+	 * @param search Enum specifying whether to search subject (KEY) or object (VALUE)
+	 * @param limit Max number of elements to be returned
+	 */
+	public Query(Class<?> c, String field, Element e, Searcheable search, int limit)
+	{
+		this(c, field, e, search);
+		this.limit = limit;
+	}
 
 	/**
 	 * Get type of each element to be returned by the Searcher
@@ -91,4 +115,10 @@ public class Query extends AbstractElement
 	 * @return Enum type (KEY or VALUE)
 	 */
 	public Searcheable getSearch() {return search;}
+	
+	/**
+	 * Get max number of elements to be returned by the Searcher
+	 * @return Max number of elements (NO_LIMIT if every element is required)
+	 */
+	public int getLimit() {return limit;}
 }
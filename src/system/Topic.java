@@ -2,10 +2,13 @@ package system;
 
 import system.qa.UncorrectInputException;
 import system.Query;
+import system.index.Dictionary;
+import system.search.Searcher;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.HashSet;
 
 import org.apache.lucene.queryparser.classic.ParseException;
 
@@ -27,6 +30,18 @@ public class Topic extends AbstractElement
 		isCorrect(id, "This is not a topic!");
 	}
 	
+	/**
+	 * Constructor handling wrong input of ID, bound to the searcher of an index
+	 * @param id String value of ID
+	 * @param s Searcher of the index this topic comes from
+	 * @throws UncorrectIdException
+	 */
+	public Topic(String id, Searcher s) throws UncorrectIdException
+	{
+		super(id, s);
+		isCorrect(id, "This is not a topic!");
+	}
+	
 	@Override
 	protected boolean isCorrect(String s, String message) throws UncorrectIdException
 	{
@@ -39,16 +54,18 @@ public class Topic extends AbstractElement
 	/**
 	 * Know if this topic is a person or not
 	 * @return Whether this topic is a person or not
-	 * @throws NotFoundException 
 	 * @throws UncorrectIdException 
 	 * @throws UncorrectInputException 
 	 */
 	public boolean isPerson() throws IOException, NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException,
-	IllegalArgumentException, InvocationTargetException, ParseException, NotFoundException, UncorrectIdException, UncorrectInputException
+	IllegalArgumentException, InvocationTargetException, ParseException, UncorrectIdException, UncorrectInputException
 	{
-		Set<String> valueSet = getProperties("type");
-		if (valueSet.contains("people person")) return true;
-		return false;
+		//The people saved with the dictionary answer without searching the index
+		Boolean isPerson = s.isPerson(id);
+		if (isPerson != null) return isPerson;
+		
+		//A topic without types is not a person
+		return findProperties("type").contains(Dictionary.PERSON_TYPE);
 	}
 	
 	/**
@@ -71,10 +88,20 @@ public class Topic extends AbstractElement
 	private Set<String> actionPerLang(String field, Language lang) throws IOException, UncorrectFormatLanguage, NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException,
 	IllegalArgumentException, InvocationTargetException, ParseException, NotFoundException, UncorrectInputException
 	{
-		Query q = new Query(Topic.class, field, this, Searcheable.KEY);
-		Set<String> targetsId = s.getQuery(q, true);
-		Set<String> targetsPerLang = new TreeSet<String>();
-		if (targetsId == null) throw new NotFoundException();
+		return selectPerLang(getValues(field), lang);
+	}
+	
+	/**
+	 * Select the values of a property in a language (used by Searcher to resolve the labels of many topics at once)
+	 * @param targetsId Values of the property, each one followed by its language (null if the topic does not have the property)
+	 * @param lang Language object
+	 * @return Set of values in the language chosen, without the language (empty if there are not)
+	 * @throws UncorrectFormatLanguage
+	 */
+	public static Set<String> selectPerLang(Set<String> targetsId, Language lang) throws UncorrectFormatLanguage
+	{
+		Set<String> targetsPerLang = new HashSet<String>();
+		if (targetsId == null) return targetsPerLang;
 		for (String s : targetsId)
 		{
 			if (!s.contains("@")) throw new UncorrectFormatLanguage();
@@ -93,7 +120,7 @@ public class Topic extends AbstractElement
 	public Set<String> getLabels(Language lang) throws IOException, UncorrectFormatLanguage, NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException,
 	IllegalArgumentException, InvocationTargetException, ParseException, NotFoundException, UncorrectInputException
 	{
-		return actionPerLang("label", lang);
+		return s.getLabels(Collections.singleton(this), lang).get(id);
 	}
 	
 	/**
@@ -3,9 +3,10 @@ package system;
 import system.qa.UncorrectInputException;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.util.TreeSet;
+import java.util.HashSet;
 import java.util.Set;
 import system.Query;
+import system.search.Searcher;
 import org.apache.lucene.queryparser.classic.ParseException;
 
 /**
@@ -26,6 +27,18 @@ public class Type extends AbstractElement
 		isCorrect(id, "This is not a type!");
 	}
 	
+	/**
+	 * Construtor handling wrong input of ID, bound to the searcher of an index
+	 * @param type String value of ID
+	 * @param s Searcher of the index this type comes from
+	 * @throws UncorrectIdException
+	 */
+	public Type(String type, Searcher s) throws UncorrectIdException
+	{
+		super(type, s);
+		isCorrect(id, "This is not a type!");
+	}
+	
 	@Override
 	protected boolean isCorrect(String s, String message) throws UncorrectIdException
 	{
@@ -54,10 +67,10 @@ public class Type extends AbstractElement
 		{
 			Query q = new Query(Topic.class, "type", this, Searcheable.VALUE);
 			Set<String> topics =  s.getQuery(q, true);
-			Set<Topic> returnTopics = new TreeSet<Topic>();
+			Set<Topic> returnTopics = new HashSet<Topic>();
 			for (String topic : topics)
 			{
-				returnTopics.add(new Topic(topic));
+				returnTopics.add(new Topic(topic, s));
 			}
 			return returnTopics;
 		}
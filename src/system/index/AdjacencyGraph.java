@@ -0,0 +1,250 @@
+package system.index;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Adjacency graph of a triple store in compressed sparse row form: the edges leaving each term (predicate and object)
+ * and the edges reaching it (predicate and subject) are stored contiguously and sorted by predicate, and the row of a term
+ * is found through an array of offsets indexed by its ID. Offsets and edges are memory-mapped files loaded into memory
+ * outside the heap, so the graph can hold hundreds of millions of edges without adding work to the garbage collector.
+ * A lookup reads two offsets and binary searches a single row, whatever the number of edges of the graph.
+ * An instance can be shared between threads.
+ * @author Francesco Raco
+ *
+ */
+public class AdjacencyGraph
+{
+	/**
+	 * Name of the file containing the offsets of the rows of the edges leaving each term
+	 */
+	public static final String OUT_OFFSETS_FILE = "out.idx";
+
+	/**
+	 * Name of the file containing the edges leaving each term (predicate and object)
+	 */
+	public static final String OUT_EDGES_FILE = "out.dat";
+
+	/**
+	 * Name of the file containing the offsets of the rows of the edges reaching each term
+	 */
+	public static final String IN_OFFSETS_FILE = "in.idx";
+
+	/**
+	 * Name of the file containing the edges reaching each term (predicate and subject)
+	 */
+	public static final String IN_EDGES_FILE = "in.dat";
+
+	/**
+	 * Extension of the files being built
+	 */
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	/**
+	 * Size in bytes of an edge (two ints)
+	 */
+	static final int EDGE_SIZE = 8;
+
+	/**
+	 * Offsets of the rows (one long per term, plus the end of the last row)
+	 */
+	private MappedFile outOffsets, inOffsets;
+
+	/**
+	 * Edges of the rows
+	 */
+	private MappedFile outEdges, inEdges;
+
+	/**
+	 * Private constructor
+	 */
+	private AdjacencyGraph() {}
+
+	/**
+	 * Know whether a directory contains an adjacency graph
+	 * @param dir Directory to be checked
+	 * @return Whether the directory contains an adjacency graph or not
+	 */
+	public static boolean exists(File dir)
+	{
+		for (String name : new String[] {OUT_OFFSETS_FILE, OUT_EDGES_FILE, IN_OFFSETS_FILE, IN_EDGES_FILE})
+			if (!new File(dir, name).isFile()) return false;
+		return true;
+	}
+
+	/**
+	 * Open the adjacency graph contained by a directory, loading it into memory
+	 * @param dir Directory of the adjacency graph
+	 * @return Adjacency graph opened
+	 * @throws IOException
+	 */
+	public static AdjacencyGraph open(File dir) throws IOException
+	{
+		if (!exists(dir)) throw new IOException("There is no adjacency graph in " + dir);
+		AdjacencyGraph graph = new AdjacencyGraph();
+		graph.outOffsets = new MappedFile(new File(dir, OUT_OFFSETS_FILE));
+		graph.outEdges = new MappedFile(new File(dir, OUT_EDGES_FILE));
+		graph.inOffsets = new MappedFile(new File(dir, IN_OFFSETS_FILE));
+		graph.inEdges = new MappedFile(new File(dir, IN_EDGES_FILE));
+		for (MappedFile file : new MappedFile[] {graph.outOffsets, graph.outEdges, graph.inOffsets, graph.inEdges}) file.load();
+		return graph;
+	}
+
+	/**
+	 * Build the adjacency graph of the triple store contained by a directory, next to the store.
+	 * The rows are filled in two passes over a permutation of the triples, counting the edges of each row and then putting them
+	 * in place: the offsets are used as cursors, so the heap needed does not depend on the size of the store.
+	 * @param dir Directory of the triple store
+	 * @throws IOException
+	 */
+	public static void build(File dir) throws IOException
+	{
+		if (!TripleStore.exists(dir)) throw new IOException("There is no triple store in " + dir);
+		int terms = (int) (new File(dir, TripleStore.TERM_OFFSETS_FILE).length() / 8 - 1);
+
+		//SPO gives the edges leaving each term sorted by predicate and object, POS the edges reaching it sorted by predicate and subject
+		writeRows(new MappedFile(new File(dir, TripleStore.SPO_FILE)), 0, 1, 2, terms, temp(dir, OUT_OFFSETS_FILE), temp(dir, OUT_EDGES_FILE));
+		writeRows(new MappedFile(new File(dir, TripleStore.POS_FILE)), 1, 0, 2, terms, temp(dir, IN_OFFSETS_FILE), temp(dir, IN_EDGES_FILE));
+
+		//The graph is incomplete (and ignored by exists) until its last file is in place
+		for (String name : new String[] {OUT_EDGES_FILE, OUT_OFFSETS_FILE, IN_EDGES_FILE, IN_OFFSETS_FILE})
+		{
+			File file = new File(dir, name);
+			if (file.exists() && !file.delete()) throw new IOException("Unable to replace " + file);
+		}
+		for (String name : new String[] {OUT_EDGES_FILE, OUT_OFFSETS_FILE, IN_EDGES_FILE, IN_OFFSETS_FILE})
+			if (!temp(dir, name).renameTo(new File(dir, name))) throw new IOException("Unable to create " + new File(dir, name));
+	}
+
+	/**
+	 * Get the file where a file of the graph is built
+	 * @param dir Directory of the graph
+	 * @param name Name of the file
+	 * @return File being built
+	 */
+	private static File temp(File dir, String name) {return new File(dir, name + TEMP_EXTENSION);}
+
+	/**
+	 * Write the rows of the edges of a permutation of the triples
+	 * @param triples Permutation of the triples (sorted by the predicate before the target of the edges within each row)
+	 * @param rowColumn Column of the term owning the row
+	 * @param predicateColumn Column of the predicate of the edge
+	 * @param targetColumn Column of the term at the other end of the edge
+	 * @param terms Number of terms
+	 * @param offsetsFile File of the offsets of the rows
+	 * @param edgesFile File of the edges
+	 * @throws IOException
+	 */
+	private static void writeRows(MappedFile triples, int rowColumn, int predicateColumn, int targetColumn, int terms, File offsetsFile, File edgesFile)
+			throws IOException
+	{
+		long size = triples.length() / TripleStore.RECORD_SIZE;
+		MappedFile offsets = new MappedFile(offsetsFile, 8L * (terms + 1));
+		MappedFile edges = new MappedFile(edgesFile, size * EDGE_SIZE);
+
+		//First pass: number of edges of each row, kept in the slot of the next row and summed into the start of each row
+		for (long i = 0; i < size; i++)
+		{
+			long slot = 8L * (triples.getInt(i * TripleStore.RECORD_SIZE + 4 * rowColumn) + 1);
+			offsets.putLong(slot, offsets.getLong(slot) + 1);
+		}
+		for (int t = 1; t <= terms; t++) offsets.putLong(8L * t, offsets.getLong(8L * t) + offsets.getLong(8L * (t - 1)));
+
+		//Second pass: each edge is put where the cursor of its row points, in the order of the permutation
+		for (long i = 0; i < size; i++)
+		{
+			long record = i * TripleStore.RECORD_SIZE;
+			long slot = 8L * triples.getInt(record + 4 * rowColumn);
+			long edge = offsets.getLong(slot);
+			edges.putInt(edge * EDGE_SIZE, triples.getInt(record + 4 * predicateColumn));
+			edges.putInt(edge * EDGE_SIZE + 4, triples.getInt(record + 4 * targetColumn));
+			offsets.putLong(slot, edge + 1);
+		}
+
+		//Each cursor has reached the start of the next row
+		for (int t = terms; t > 0; t--) offsets.putLong(8L * t, offsets.getLong(8L * (t - 1)));
+		offsets.putLong(0, 0);
+		offsets.force();
+		edges.force();
+	}
+
+	/**
+	 * Get the range of the edges of a row with a predicate (binary search in the row)
+	 * @param offsets Offsets of the rows
+	 * @param edges Edges of the rows
+	 * @param term ID of the term owning the row
+	 * @param predicate Code of the predicate (-1 for every edge of the row)
+	 * @return Index of the first edge and end (excluded) of the range
+	 */
+	private static long[] range(MappedFile offsets, MappedFile edges, int term, int predicate)
+	{
+		long low = offsets.getLong(8L * term), end = offsets.getLong(8L * (term + 1));
+		if (predicate < 0) return new long[] {low, end};
+		long high = end;
+		while (low < high)
+		{
+			long mid = (low + high) >>> 1;
+			if (edges.getInt(mid * EDGE_SIZE) < predicate) low = mid + 1;
+			else high = mid;
+		}
+		long start = low;
+		high = end;
+		while (low < high)
+		{
+			long mid = (low + high) >>> 1;
+			if (edges.getInt(mid * EDGE_SIZE) <= predicate) low = mid + 1;
+			else high = mid;
+		}
+		return new long[] {start, low};
+	}
+
+	/**
+	 * Get the range of the edges leaving a term
+	 * @param subject ID of the term
+	 * @param predicate Code of the predicate (-1 for every edge)
+	 * @return Index of the first edge and end (excluded) of the range, sorted by predicate and object
+	 */
+	long[] getOutRange(int subject, int predicate) {return range(outOffsets, outEdges, subject, predicate);}
+
+	/**
+	 * Get the range of the edges reaching a term
+	 * @param object ID of the term
+	 * @param predicate Code of the predicate (-1 for every edge)
+	 * @return Index of the first edge and end (excluded) of the range, sorted by predicate and subject
+	 */
+	long[] getInRange(int object, int predicate) {return range(inOffsets, inEdges, object, predicate);}
+
+	/**
+	 * Get the predicate of an edge leaving a term
+	 * @param edge Index of the edge
+	 * @return Code of the predicate
+	 */
+	int getOutPredicate(long edge) {return outEdges.getInt(edge * EDGE_SIZE);}
+
+	/**
+	 * Get the object of an edge leaving a term
+	 * @param edge Index of the edge
+	 * @return ID of the object
+	 */
+	int getOutTerm(long edge) {return outEdges.getInt(edge * EDGE_SIZE + 4);}
+
+	/**
+	 * Get the predicate of an edge reaching a term
+	 * @param edge Index of the edge
+	 * @return Code of the predicate
+	 */
+	int getInPredicate(long edge) {return inEdges.getInt(edge * EDGE_SIZE);}
+
+	/**
+	 * Get the subject of an edge reaching a term
+	 * @param edge Index of the edge
+	 * @return ID of the subject
+	 */
+	int getInTerm(long edge) {return inEdges.getInt(edge * EDGE_SIZE + 4);}
+
+	/**
+	 * Get the number of edges
+	 * @return Number of edges
+	 */
+	public long size() {return outEdges.length() / EDGE_SIZE;}
+}
@@ -0,0 +1,398 @@
+package system.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary encoding predicates as small ints and Freebase MIDs (m.xxxx) as dense longs,
+ * built by FreeBaseIndexer and persisted next to the index
+ * @author Francesco Raco
+ *
+ */
+public class Dictionary
+{
+	/**
+	 * Name of the file containing the predicates (one per line, the line number is the code)
+	 */
+	public static final String PREDICATES_FILE = "dictionary.predicates";
+
+	/**
+	 * Name of the file containing the sorted MIDs (the position is the code)
+	 */
+	public static final String TOPICS_FILE = "dictionary.topics";
+
+	/**
+	 * Name of the file containing the people (a bit set over the codes of the MIDs)
+	 */
+	public static final String PERSONS_FILE = "dictionary.persons";
+
+	/**
+	 * Type of the people (as written in the index)
+	 */
+	public static final String PERSON_TYPE = "people person";
+
+	/**
+	 * Digits of the MIDs (base 32)
+	 */
+	private static final String ALPHABET = "0123456789bcdfghjklmnpqrstvwxyz_";
+
+	/**
+	 * Max number of digits of a MID which can be encoded
+	 */
+	private static final int MAX_DIGITS = 12;
+
+	/**
+	 * Predicates ordered by code
+	 */
+	private List<String> predicates = new ArrayList<String>();
+
+	/**
+	 * Codes of the predicates
+	 */
+	private Map<String, Integer> predicateCodes = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Numeric values of the MIDs in ascending order (the position of a MID is its code)
+	 */
+	private long[] topics = new long[0];
+
+	/**
+	 * Numeric values of the MIDs added and not encoded yet
+	 */
+	private LongHashSet addedTopics = new LongHashSet();
+
+	/**
+	 * People as a bit set over the codes of the MIDs (null if the dictionary has been saved without them)
+	 */
+	private long[] persons = new long[0];
+
+	/**
+	 * Numeric values of the people added and removed, not encoded yet
+	 */
+	private LongHashSet addedPersons = new LongHashSet(), removedPersons = new LongHashSet();
+
+	/**
+	 * Get the numeric value of a MID (a bijection: a leading 1 keeps the leading zeros of the MID)
+	 * @param id String value of the ID
+	 * @return Numeric value of the MID (-1 if the ID is not a MID)
+	 */
+	public static long toNumber(String id)
+	{
+		int length = id.length();
+		if (length < 3 || length > MAX_DIGITS + 2 || id.charAt(0) != 'm' || id.charAt(1) != '.') return -1;
+		long number = 1;
+		for (int i = 2; i < length; i++)
+		{
+			int digit = ALPHABET.indexOf(id.charAt(i));
+			if (digit < 0) return -1;
+			number = (number << 5) | digit;
+		}
+		return number;
+	}
+
+	/**
+	 * Get the MID of a numeric value
+	 * @param number Numeric value of the MID
+	 * @return String value of the MID
+	 */
+	public static String toMid(long number)
+	{
+		char[] digits = new char[MAX_DIGITS + 2];
+		int i = digits.length;
+		while (number > 1)
+		{
+			digits[--i] = ALPHABET.charAt((int) (number & 31));
+			number >>>= 5;
+		}
+		digits[--i] = '.';
+		digits[--i] = 'm';
+		return new String(digits, i, digits.length - i);
+	}
+
+	/**
+	 * Get the string form of a predicate code, written in the index in place of the predicate
+	 * @param code Code of the predicate
+	 * @return String value of the code
+	 */
+	public static String toTerm(int code)
+	{
+		return Integer.toString(code, Character.MAX_RADIX);
+	}
+
+	/**
+	 * Add a predicate (thread-safe)
+	 * @param predicate String value of the predicate
+	 * @return Code of the predicate
+	 */
+	public int addPredicate(String predicate)
+	{
+		Integer code = predicateCodes.get(predicate);
+		if (code != null) return code;
+		synchronized (predicates)
+		{
+			code = predicateCodes.get(predicate);
+			if (code == null)
+			{
+				code = predicates.size();
+				predicates.add(predicate);
+				predicateCodes.put(predicate, code);
+			}
+			return code;
+		}
+	}
+
+	/**
+	 * Add the MIDs of a set of numeric values (thread-safe): they are encoded by the next save
+	 * @param numbers Numeric values of the MIDs
+	 */
+	public synchronized void addTopics(LongHashSet numbers)
+	{
+		addedTopics.addAll(numbers);
+	}
+
+	/**
+	 * Know whether a triple states that its subject is a person
+	 * @param name String value of the predicate
+	 * @param value String value of the object
+	 * @return Whether the object is the type of the people or not
+	 */
+	public static boolean isPersonType(String name, String value)
+	{
+		return name.equals("type") && value.equals(PERSON_TYPE);
+	}
+
+	/**
+	 * Add the people of a set of numeric values of MIDs (thread-safe): they are encoded by the next save
+	 * @param numbers Numeric values of the MIDs
+	 */
+	public synchronized void addPersons(LongHashSet numbers)
+	{
+		addedPersons.addAll(numbers);
+	}
+
+	/**
+	 * Remove the people of a set of numeric values of MIDs (thread-safe): they are encoded by the next save
+	 * @param numbers Numeric values of the MIDs
+	 */
+	public synchronized void removePersons(LongHashSet numbers)
+	{
+		removedPersons.addAll(numbers);
+	}
+
+	/**
+	 * Know whether the dictionary knows the people (dictionaries saved before the people were added to them do not)
+	 * @return Whether the dictionary knows the people or not
+	 */
+	public boolean hasPersons() {return persons != null;}
+
+	/**
+	 * Know whether a topic is a person (a test of the bit of its code)
+	 * @param id String value of the ID
+	 * @return Whether the topic is a person or not (false if the dictionary does not know the people or the ID is not a MID)
+	 */
+	public boolean isPerson(String id)
+	{
+		long[] bits = persons;
+		long code = getTopicCode(id);
+		return bits != null && code >= 0 && (code >>> 6) < bits.length && (bits[(int) (code >>> 6)] & (1L << code)) != 0;
+	}
+
+	/**
+	 * Get the code of a predicate
+	 * @param predicate String value of the predicate
+	 * @return Code of the predicate (-1 if it is unknown)
+	 */
+	public int getPredicateCode(String predicate)
+	{
+		Integer code = predicateCodes.get(predicate);
+		return code == null ? -1 : code;
+	}
+
+	/**
+	 * Get the predicate of a code
+	 * @param code Code of the predicate
+	 * @return String value of the predicate
+	 */
+	public String getPredicate(int code)
+	{
+		synchronized (predicates) {return predicates.get(code);}
+	}
+
+	/**
+	 * Get the number of predicates
+	 * @return Number of predicates
+	 */
+	public int getPredicateCount()
+	{
+		synchronized (predicates) {return predicates.size();}
+	}
+
+	/**
+	 * Get the dense code of a MID
+	 * @param id String value of the ID
+	 * @return Code of the MID (-1 if the ID is not a known MID)
+	 */
+	public long getTopicCode(String id)
+	{
+		long number = toNumber(id);
+		if (number < 0) return -1;
+		long[] sorted = topics;
+		int position = Arrays.binarySearch(sorted, number);
+		return position < 0 ? -1 : position;
+	}
+
+	/**
+	 * Get the MID of a dense code
+	 * @param code Code of the MID
+	 * @return String value of the MID
+	 */
+	public String getTopic(long code)
+	{
+		return toMid(topics[(int) code]);
+	}
+
+	/**
+	 * Get the number of MIDs encoded
+	 * @return Number of MIDs
+	 */
+	public int getTopicCount() {return topics.length;}
+
+	/**
+	 * Encode the MIDs and the people added since the last call (the codes of the MIDs already encoded may change)
+	 */
+	private synchronized void encodeTopics()
+	{
+		if (addedTopics.size() == 0 && addedPersons.size() == 0 && removedPersons.size() == 0) return;
+		long[] old = topics;
+		if (addedTopics.size() > 0)
+		{
+			for (long number : topics) addedTopics.add(number);
+			topics = addedTopics.toSortedArray();
+			addedTopics = new LongHashSet();
+		}
+		if (persons != null)
+		{
+			//The bits follow the new codes of the people
+			LongHashSet people = addedPersons;
+			for (int code = 0; code < old.length; code++)
+				if ((code >>> 6) < persons.length && (persons[code >>> 6] & (1L << code)) != 0) people.add(old[code]);
+			long[] bits = new long[(topics.length + 63) >>> 6];
+			for (long number : people.toArray())
+			{
+				if (removedPersons.contains(number)) continue;
+				int code = Arrays.binarySearch(topics, number);
+				if (code >= 0) bits[code >>> 6] |= 1L << code;
+			}
+			persons = bits;
+		}
+		addedPersons = new LongHashSet();
+		removedPersons = new LongHashSet();
+	}
+
+	/**
+	 * Save the dictionary into a directory (files are replaced atomically)
+	 * @param dir Directory where to save
+	 * @throws IOException
+	 */
+	public synchronized void save(File dir) throws IOException
+	{
+		encodeTopics();
+		File predicatesFile = new File(dir, PREDICATES_FILE + ".tmp");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(predicatesFile), StandardCharsets.UTF_8);
+		try {for (int i = 0; i < getPredicateCount(); i++) writer.write(getPredicate(i) + '\n');}
+		finally {writer.close();}
+		File topicsFile = new File(dir, TOPICS_FILE + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(topicsFile), 1 << 16));
+		try
+		{
+			out.writeInt(topics.length);
+			for (long number : topics) out.writeLong(number);
+		}
+		finally {out.close();}
+		if (persons != null)
+		{
+			File personsFile = new File(dir, PERSONS_FILE + ".tmp");
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(personsFile), 1 << 16));
+			try
+			{
+				out.writeInt(persons.length);
+				for (long word : persons) out.writeLong(word);
+			}
+			finally {out.close();}
+			replace(personsFile, new File(dir, PERSONS_FILE));
+		}
+		replace(predicatesFile, new File(dir, PREDICATES_FILE));
+		replace(topicsFile, new File(dir, TOPICS_FILE));
+	}
+
+	/**
+	 * Replace a file with another one
+	 * @param from File replacing
+	 * @param to File replaced
+	 * @throws IOException
+	 */
+	private static void replace(File from, File to) throws IOException
+	{
+		if (to.exists() && !to.delete()) throw new IOException("Unable to replace " + to);
+		if (!from.renameTo(to)) throw new IOException("Unable to write " + to);
+	}
+
+	/**
+	 * Load the dictionary saved into a directory
+	 * @param dir Directory where the dictionary has been saved
+	 * @return Dictionary loaded (null if the directory does not contain a dictionary)
+	 * @throws IOException
+	 */
+	public static Dictionary load(File dir) throws IOException
+	{
+		File predicatesFile = new File(dir, PREDICATES_FILE);
+		File topicsFile = new File(dir, TOPICS_FILE);
+		if (!predicatesFile.exists() || !topicsFile.exists()) return null;
+		Dictionary dictionary = new Dictionary();
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(predicatesFile), StandardCharsets.UTF_8));
+		try
+		{
+			String line;
+			while ((line = br.readLine()) != null) dictionary.addPredicate(line);
+		}
+		finally {br.close();}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(topicsFile), 1 << 16));
+		try
+		{
+			long[] topics = new long[in.readInt()];
+			for (int i = 0; i < topics.length; i++) topics[i] = in.readLong();
+			dictionary.topics = topics;
+		}
+		finally {in.close();}
+		
+		//A dictionary saved without the people does not know them, and will not learn them from later deltas
+		File personsFile = new File(dir, PERSONS_FILE);
+		dictionary.persons = null;
+		if (!personsFile.exists()) return dictionary;
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(personsFile), 1 << 16));
+		try
+		{
+			long[] persons = new long[in.readInt()];
+			for (int i = 0; i < persons.length; i++) persons[i] = in.readLong();
+			dictionary.persons = persons;
+		}
+		finally {in.close();}
+		return dictionary;
+	}
+}
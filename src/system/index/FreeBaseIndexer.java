@@ -3,19 +3,49 @@ package system.index;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.GZIPInputStream;
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.SimpleFSDirectory;
 import org.apache.lucene.util.Version;
@@ -28,6 +58,71 @@ import org.apache.lucene.util.Version;
  */
 public class FreeBaseIndexer
 {
+	/**
+	 * Name of the indexed (not stored) field joining subject and predicate of each triple
+	 */
+	public static final String SUBJECT_PREDICATE = "subject_predicate";
+	
+	/**
+	 * Name of the indexed (not stored) field joining predicate and object of each triple
+	 */
+	public static final String PREDICATE_OBJECT = "predicate_object";
+	
+	/**
+	 * Separator between the parts of a composite key (subjects and predicates never contain it)
+	 */
+	public static final char KEY_SEPARATOR = ' ';
+	
+	/**
+	 * Key of the commit data entry recording the layout of the index
+	 */
+	public static final String LAYOUT = "layout";
+	
+	/**
+	 * Layout with one document per triple (default)
+	 */
+	public static final String TRIPLE_LAYOUT = "triple";
+	
+	/**
+	 * Layout with one document per subject, where each predicate is a multi-valued stored field
+	 */
+	public static final String ENTITY_LAYOUT = "entity";
+	
+	/**
+	 * Key of the commit data entry identifying the dump of a checkpoint
+	 */
+	public static final String CHECKPOINT_SOURCE = "checkpoint.source";
+	
+	/**
+	 * Key of the commit data entry recording the number of lines of the dump indexed at a checkpoint
+	 */
+	public static final String CHECKPOINT_LINES = "checkpoint.lines";
+	
+	/**
+	 * Key of the commit data entry recording whether the whole dump has been indexed
+	 */
+	public static final String CHECKPOINT_COMPLETE = "checkpoint.complete";
+	
+	/**
+	 * Key of the commit data entry recording the last delta file applied
+	 */
+	public static final String DELTA_SOURCE = "delta.source";
+	
+	/**
+	 * Key of the commit data entry recording whether predicates are written as codes of the dictionary
+	 */
+	public static final String DICTIONARY = "dictionary";
+	
+	/**
+	 * Name of the file, in the index root directory, listing the directories of the shards (one per line)
+	 */
+	public static final String SHARDS_FILE = "shards";
+	
+	/**
+	 * Min number of lines processed together by a stage of the indexing
+	 */
+	private static final int BATCH_SIZE = 2000;
+	
 	/**
 	 * Name of compressed file
 	 */
@@ -43,6 +138,51 @@ public class FreeBaseIndexer
 	 */
 	private Set<String> properties;
 	
+	/**
+	 * Layout of the index to be created
+	 */
+	private String layout = TRIPLE_LAYOUT;
+	
+	/**
+	 * Number of threads parsing the lines of the dump
+	 */
+	private int parserThreads = 1;
+	
+	/**
+	 * Number of threads adding documents to the index
+	 */
+	private int writerThreads = 1;
+	
+	/**
+	 * Max number of batches waiting between two stages of the pipelined indexing
+	 */
+	private int queueDepth = 64;
+	
+	/**
+	 * Whether lines are parsed by TripleParser (true) or by scan (false)
+	 */
+	private boolean fastParsing = true;
+	
+	/**
+	 * Number of lines of the dump between two checkpoints (0 if checkpoints are disabled)
+	 */
+	private long checkpointInterval;
+	
+	/**
+	 * Whether predicates are written in the index as codes of the dictionary
+	 */
+	private boolean dictionaryEncoding;
+	
+	/**
+	 * Dictionary of predicates and MIDs of the index being built
+	 */
+	private Dictionary dictionary;
+	
+	/**
+	 * Directories of the shards, relative to the index root directory if not absolute (null if the index is not sharded)
+	 */
+	private String[] shardDirectories;
+	
 	/**
 	 * Constructor with names of compressed file and index root directory
 	 * @param nomeFileGz Name of compressed file
@@ -167,12 +307,292 @@ public class FreeBaseIndexer
 	 	return filteredSb.toString();
 	}
 
+	/**
+	 * Get the composite key of two parts of a triple
+	 * @param first String value of the first part (subject or predicate)
+	 * @param second String value of the second part (predicate or object)
+	 * @return String value of the composite key
+	 */
+	public static String compositeKey(String first, String second)
+	{
+		return first + KEY_SEPARATOR + second;
+	}
+
 	/**
 	 * Set the properties according to which the creation of index has to be restricted
 	 * @param properties
 	 */
 	public void setProperties(Set<String> properties) {this.properties = properties;}
 	
+	/**
+	 * Set the layout of the index to be created
+	 * @param layout TRIPLE_LAYOUT (one document per triple) or ENTITY_LAYOUT (one document per subject)
+	 */
+	public void setLayout(String layout)
+	{
+		if (!layout.equals(TRIPLE_LAYOUT) && !layout.equals(ENTITY_LAYOUT)) throw new IllegalArgumentException("Unknown layout: " + layout);
+		this.layout = layout;
+	}
+	
+	/**
+	 * Set the number of threads of the pipelined indexing (1 and 1 mean sequential indexing)
+	 * @param parserThreads Number of threads parsing the lines of the dump
+	 * @param writerThreads Number of threads adding documents to the index
+	 */
+	public void setThreads(int parserThreads, int writerThreads)
+	{
+		if (parserThreads < 1 || writerThreads < 1) throw new IllegalArgumentException("At least one thread per stage is required");
+		this.parserThreads = parserThreads;
+		this.writerThreads = writerThreads;
+	}
+	
+	/**
+	 * Choose the parser of the lines of the dump (both produce the same values)
+	 * @param fastParsing True for the allocation-free TripleParser, false for scan
+	 */
+	public void setFastParsing(boolean fastParsing) {this.fastParsing = fastParsing;}
+	
+	/**
+	 * Set the max number of batches waiting between two stages of the pipelined indexing
+	 * @param queueDepth Max number of batches per queue
+	 */
+	public void setQueueDepth(int queueDepth)
+	{
+		if (queueDepth < 1) throw new IllegalArgumentException("Queue depth must be positive");
+		this.queueDepth = queueDepth;
+	}
+	
+	/**
+	 * Partition the index by subject into shards, built in parallel and stored in directories of the index root directory
+	 * @param shards Number of shards (1 means a single index in the root directory)
+	 */
+	public void setShards(int shards)
+	{
+		if (shards < 1) throw new IllegalArgumentException("At least one shard is required");
+		if (shards == 1) {shardDirectories = null; return;}
+		shardDirectories = new String[shards];
+		for (int i = 0; i < shards; i++) shardDirectories[i] = "shard" + i;
+	}
+	
+	/**
+	 * Partition the index by subject into shards stored in the directories given (e.g. on different disks)
+	 * @param shardDirectories Directories of the shards (relative names are resolved against the index root directory)
+	 */
+	public void setShardDirectories(String... shardDirectories)
+	{
+		if (shardDirectories.length < 1) throw new IllegalArgumentException("At least one shard is required");
+		this.shardDirectories = shardDirectories.clone();
+	}
+	
+	/**
+	 * Get the shard of a subject
+	 * @param subject String value of the subject
+	 * @param shards Number of shards
+	 * @return Index of the shard containing the triples of the subject
+	 */
+	public static int getShard(String subject, int shards)
+	{
+		return (subject.hashCode() & Integer.MAX_VALUE) % shards;
+	}
+	
+	/**
+	 * Get the directories of the shards of an index
+	 * @param root Index root directory
+	 * @return Directories of the shards (only the root directory if the index is not sharded)
+	 * @throws IOException
+	 */
+	public static File[] getShards(File root) throws IOException
+	{
+		File file = new File(root, SHARDS_FILE);
+		if (!file.isFile()) return new File[] {root};
+		List<File> shards = new ArrayList<File>();
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try
+		{
+			String line;
+			while ((line = br.readLine()) != null)
+			{
+				line = line.trim();
+				if (line.equals("")) continue;
+				File shard = new File(line);
+				shards.add(shard.isAbsolute() ? shard : new File(root, line));
+			}
+		}
+		finally {br.close();}
+		return shards.toArray(new File[shards.size()]);
+	}
+	
+	/**
+	 * Record the shards of the index to be created in its root directory
+	 * @param root Index root directory
+	 * @return Directories of the shards (only the root directory if the index is not sharded)
+	 * @throws IOException
+	 */
+	private File[] writeShards(File root) throws IOException
+	{
+		if (!root.isDirectory() && !root.mkdirs()) throw new IOException("Unable to create " + root);
+		File file = new File(root, SHARDS_FILE);
+		if (shardDirectories == null)
+		{
+			if (file.exists() && !file.delete()) throw new IOException("Unable to delete " + file);
+			return new File[] {root};
+		}
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+		try {for (String shard : shardDirectories) out.write(shard + '\n');}
+		finally {out.close();}
+		return getShards(root);
+	}
+	
+	/**
+	 * Get the writer of the shard of a document
+	 * @param writers Writers of the shards
+	 * @param doc Document to be added
+	 * @return Writer of the shard containing the subject of the document
+	 */
+	private static IndexWriter getWriter(IndexWriter[] writers, Document doc)
+	{
+		return writers.length == 1 ? writers[0] : writers[getShard(doc.get("subject"), writers.length)];
+	}
+	
+	/**
+	 * Create the configuration of an index writer
+	 * @return Configuration of an index writer
+	 */
+	private IndexWriterConfig createConfig()
+	{
+		IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_48, new WhitespaceAnalyzer(Version.LUCENE_48));
+		config.setMaxThreadStates(Math.max(config.getMaxThreadStates(), writerThreads));
+		return config;
+	}
+	
+	/**
+	 * Write predicates in the index as codes of the dictionary (the dictionary is saved next to the index anyway)
+	 * @param dictionaryEncoding True for predicates encoded, false for predicates as they are
+	 */
+	public void setDictionaryEncoding(boolean dictionaryEncoding) {this.dictionaryEncoding = dictionaryEncoding;}
+	
+	/**
+	 * Add a triple to the dictionary
+	 * @param key String value of the subject
+	 * @param name String value of the predicate
+	 * @param value String value of the object
+	 * @param topics Set collecting the numeric values of the MIDs
+	 * @param persons Set collecting the numeric values of the MIDs of the people (null if they are collected by the caller)
+	 * @param encoded Whether predicates are written in the index as codes or not
+	 * @return Name of the predicate to be written in the index
+	 */
+	private String encode(String key, String name, String value, LongHashSet topics, LongHashSet persons, boolean encoded)
+	{
+		long number = Dictionary.toNumber(key);
+		if (number >= 0) topics.add(number);
+		if (number >= 0 && persons != null && Dictionary.isPersonType(name, value)) persons.add(number);
+		number = Dictionary.toNumber(value);
+		if (number >= 0) topics.add(number);
+		int code = dictionary.addPredicate(name);
+		return encoded ? Dictionary.toTerm(code) : name;
+	}
+	
+	/**
+	 * Create the document of a triple (triple layout)
+	 * @param key String value of the subject
+	 * @param name String value of the predicate
+	 * @param value String value of the object
+	 * @return Document of the triple
+	 */
+	private Document createTriple(String key, String name, String value)
+	{
+		Document doc = new Document();
+		doc.add(new StringField("subject", key, Field.Store.YES));
+		doc.add(new StringField("predicate", name, Field.Store.YES));
+		doc.add(new StringField("object", value, Field.Store.YES));
+		doc.add(new StringField(SUBJECT_PREDICATE, compositeKey(key, name), Field.Store.NO));
+		doc.add(new StringField(PREDICATE_OBJECT, compositeKey(name, value), Field.Store.NO));
+		return doc;
+	}
+	
+	/**
+	 * Create the document of a subject without properties (entity layout)
+	 * @param key String value of the subject
+	 * @return Document of the subject
+	 */
+	private Document createEntity(String key)
+	{
+		Document entity = new Document();
+		entity.add(new StringField("subject", key, Field.Store.YES));
+		return entity;
+	}
+	
+	/**
+	 * Add a property to the document of a subject (entity layout)
+	 * @param entity Document of the subject
+	 * @param name String value of the predicate
+	 * @param value String value of the object
+	 */
+	private void addProperty(Document entity, String name, String value)
+	{
+		entity.add(new StoredField(name, value));
+		entity.add(new StringField(PREDICATE_OBJECT, compositeKey(name, value), Field.Store.NO));
+	}
+	
+	/**
+	 * Create the documents of a batch of lines
+	 * @param lines Batch of lines (the triples of a subject are never split between two batches)
+	 * @param coll Collection containing the string value of elements ID (null if every element is required)
+	 * @return List of documents to be added to the index
+	 * @throws IOException
+	 */
+	private List<Document> parse(LineBatch lines, Collection<String> coll) throws IOException
+	{
+		List<Document> docs = new ArrayList<Document>(lines.size());
+		boolean entityLayout = layout.equals(ENTITY_LAYOUT);
+		TripleParser parser = fastParsing ? new TripleParser() : null;
+		Document entity = null;
+		String entityKey = null;
+		LongHashSet topics = new LongHashSet(lines.size());
+		LongHashSet persons = new LongHashSet();
+		for (int i = 0; i < lines.size(); i++)
+		{
+        	if (lines.length(i) == 0) continue;
+        	String key, name, value;
+        	if (parser != null)
+        	{
+        		if (!parser.parse(lines.getChars(), lines.start(i), lines.length(i))) throw new IOException("Malformed triple: " + lines.getLine(i));
+        		if (parser.isPredicate("type")) parser.reduceType();
+        		key = parser.getSubject();
+        		name = parser.getPredicate();
+        		value = parser.getObject();
+        	}
+        	else
+        	{
+        		List<String> triple = scan(lines.getLine(i));
+        		key = triple.get(0);
+        		name = triple.get(1);
+        		value = triple.get(2);
+        		if (name.equals("type")) value = reduceTypes(triple.get(2));
+        	}
+ 		    if (((coll != null && coll.contains(key)) || coll == null) && (properties == null || properties.contains(name)))
+ 		    {
+ 		    	name = encode(key, name, value, topics, persons, dictionaryEncoding);
+ 		    	if (entityLayout)
+ 		    	{
+ 		    		//Triples of a subject are contiguous in the dump, so a new subject closes the previous document
+ 		    		if (!key.equals(entityKey))
+ 		    		{
+ 		    			entity = createEntity(key);
+ 		    			entityKey = key;
+ 		    			docs.add(entity);
+ 		    		}
+ 		    		addProperty(entity, name, value);
+ 		    		continue;
+ 		    	}
+ 		    	docs.add(createTriple(key, name, value));
+ 		    }
+		}
+		dictionary.addTopics(topics);
+		dictionary.addPersons(persons);
+		return docs;
+	}
+	
 	/**
 	 * Create the index
 	 * @throws IOException
@@ -187,33 +607,483 @@ public class FreeBaseIndexer
 	public void index(Collection<String> coll) throws IOException
 	{
 		FileInputStream fin = new FileInputStream(nomeFileGz);
-	    GZIPInputStream gzis = new GZIPInputStream(fin);
+	    GZIPInputStream gzis = new GZIPInputStream(fin, 1 << 16);
 	    InputStreamReader isr = new InputStreamReader(gzis);
-	    BufferedReader br = new BufferedReader(isr);
-	    Directory dir = SimpleFSDirectory.open(new File(cartellaDestinazione));
-	    WhitespaceAnalyzer analyzer = new WhitespaceAnalyzer(Version.LUCENE_48);
-	    IndexWriter writer = new IndexWriter(dir, new
-	    IndexWriterConfig(Version.LUCENE_48, analyzer));
-	    while (br.ready())
+	    File root = new File(cartellaDestinazione);
+	    IndexWriter[] writers = null;
+	    boolean completed = false;
+	    try
 	    {
-	    	String s = br.readLine();
-        	if (s.equals("")) continue;
-        	List<String> triple = scan(s);
-        	String key = triple.get(0);
-        	String name = triple.get(1);
-        	String value = triple.get(2);
-        	if (name.equals("type")) value = reduceTypes(triple.get(2));
- 		    if (((coll != null && coll.contains(key)) || coll == null) && (properties == null || properties.contains(name)))
- 		    {
- 		    	Document doc = new Document();
- 		    	doc.add(new StringField("subject", key, Field.Store.YES));
- 		    	doc.add(new StringField("predicate", name, Field.Store.YES));
- 		    	doc.add(new StringField("object", value, Field.Store.YES));
- 		    	writer.addDocument(doc);
- 		    }
-	     }
-         writer.close();
-         br.close();
+	    	File[] shards = writeShards(root);
+	    	Directory[] dirs = new Directory[shards.length];
+	    	for (int i = 0; i < shards.length; i++) dirs[i] = SimpleFSDirectory.open(shards[i]);
+	    	long resumeFrom = 0;
+	    	dictionary = null;
+	    	if (checkpointInterval > 0)
+	    	{
+	    		//Resume an interrupted run of the same dump (with its dictionary), otherwise start from scratch
+	    		resumeFrom = getCheckpoint(dirs);
+	    		if (resumeFrom > 0) dictionary = Dictionary.load(root);
+	    		if (dictionary == null) resumeFrom = 0;
+	    	}
+	    	if (dictionary == null) dictionary = new Dictionary();
+	    	writers = new IndexWriter[dirs.length];
+	    	for (int i = 0; i < dirs.length; i++)
+	    	{
+	    		IndexWriterConfig config = createConfig();
+	    		if (checkpointInterval > 0) config.setOpenMode(resumeFrom > 0 ? OpenMode.APPEND : OpenMode.CREATE);
+	    		writers[i] = new IndexWriter(dirs[i], config);
+	    	}
+	    	LineBatcher batcher = new LineBatcher(isr, BATCH_SIZE);
+	    	if (batcher.skip(resumeFrom) < resumeFrom) throw new IOException("The dump is shorter than the checkpoint");
+	    	long lines;
+	    	if (parserThreads > 1 || writerThreads > 1) lines = indexPipelined(batcher, writers, coll, resumeFrom);
+	    	else
+	    	{
+	    		lines = resumeFrom;
+	    		long nextCheckpoint = resumeFrom + checkpointInterval;
+	    		LineBatch batch;
+	    		while ((batch = batcher.next()) != null)
+	    		{
+	    			for (Document doc : parse(batch, coll)) getWriter(writers, doc).addDocument(doc);
+	    			lines += batch.size();
+	    			if (checkpointInterval > 0 && lines >= nextCheckpoint) {checkpoint(writers, lines, false); nextCheckpoint = lines + checkpointInterval;}
+	    		}
+	    	}
+	    	dictionary.save(root);
+	    	for (IndexWriter writer : writers) writer.setCommitData(getCommitData(lines, true));
+	    	completed = true;
+	    }
+	    finally
+	    {
+	    	//A failed run keeps only what has been committed at the last checkpoint
+	    	if (writers != null)
+	    		for (IndexWriter writer : writers)
+	    		{
+	    			if (writer == null) continue;
+	    			if (completed) writer.close();
+	    			else writer.rollback();
+	    		}
+	    	isr.close();
+	    }
     }
+	
+	/**
+	 * Get the commit data describing the index
+	 * @param lines Number of lines of the dump indexed
+	 * @param complete Whether the whole dump has been indexed or not
+	 * @return Map of the commit data
+	 */
+	private Map<String, String> getCommitData(long lines, boolean complete)
+	{
+		Map<String, String> commitData = new HashMap<String, String>();
+		commitData.put(LAYOUT, layout);
+		if (dictionaryEncoding) commitData.put(DICTIONARY, Boolean.toString(true));
+		if (checkpointInterval > 0)
+		{
+			commitData.put(CHECKPOINT_SOURCE, getSource());
+			commitData.put(CHECKPOINT_LINES, Long.toString(lines));
+			commitData.put(CHECKPOINT_COMPLETE, Boolean.toString(complete));
+		}
+		return commitData;
+	}
+	
+	/**
+	 * Get the string identifying the dump (name and size of the compressed file)
+	 * @return String value identifying the dump
+	 */
+	private String getSource()
+	{
+		File file = new File(nomeFileGz);
+		return file.getName() + ':' + file.length();
+	}
+	
+	/**
+	 * Commit every document added so far, recording the number of lines of the dump they come from
+	 * @param writers Writers of the shards
+	 * @param lines Number of lines of the dump indexed
+	 * @param complete Whether the whole dump has been indexed or not
+	 * @throws IOException
+	 */
+	private void checkpoint(IndexWriter[] writers, long lines, boolean complete) throws IOException
+	{
+		//The dictionary saved before the commit covers every document committed
+		dictionary.save(new File(cartellaDestinazione));
+		
+		//Every shard is prepared before committing any of them, so that a failure rarely leaves them out of step
+		for (IndexWriter writer : writers)
+		{
+			writer.setCommitData(getCommitData(lines, complete));
+			writer.prepareCommit();
+		}
+		for (IndexWriter writer : writers) writer.commit();
+	}
+	
+	/**
+	 * Get the number of lines indexed by an interrupted run, if every shard has been committed at the same checkpoint
+	 * @param dirs Directories of the shards
+	 * @return Number of lines to be skipped (0 if there is nothing to resume)
+	 * @throws IOException
+	 */
+	private long getCheckpoint(Directory[] dirs) throws IOException
+	{
+		long lines = -1;
+		for (Directory dir : dirs)
+		{
+			long shardLines = getCheckpoint(dir);
+			if (lines >= 0 && shardLines != lines) return 0;
+			lines = shardLines;
+		}
+		return lines;
+	}
+	
+	/**
+	 * Get the number of lines indexed by an interrupted run of the same dump with the same layout and encoding
+	 * @param dir Index directory
+	 * @return Number of lines to be skipped (0 if there is nothing to resume)
+	 * @throws IOException
+	 */
+	private long getCheckpoint(Directory dir) throws IOException
+	{
+		if (!DirectoryReader.indexExists(dir)) return 0;
+		List<IndexCommit> commits = DirectoryReader.listCommits(dir);
+		Map<String, String> commitData = commits.get(commits.size() - 1).getUserData();
+		if (!getSource().equals(commitData.get(CHECKPOINT_SOURCE)) || !layout.equals(commitData.get(LAYOUT))) return 0;
+		if (Boolean.parseBoolean(commitData.get(DICTIONARY)) != dictionaryEncoding) return 0;
+		if (Boolean.parseBoolean(commitData.get(CHECKPOINT_COMPLETE)) || commitData.get(CHECKPOINT_LINES) == null) return 0;
+		return Long.parseLong(commitData.get(CHECKPOINT_LINES));
+	}
+	
+	/**
+	 * Enable periodic commits, so that an interrupted run can be resumed from the last one
+	 * (a run not finding a checkpoint of the same dump creates the index from scratch)
+	 * @param checkpointInterval Number of lines of the dump between two commits (0 disables checkpoints)
+	 */
+	public void setCheckpointInterval(long checkpointInterval)
+	{
+		if (checkpointInterval < 0) throw new IllegalArgumentException("Checkpoint interval must not be negative");
+		this.checkpointInterval = checkpointInterval;
+	}
+	
+	/**
+	 * Apply a delta file to an existing index, without rebuilding it: every line is a triple
+	 * preceded by + (triple added) or - (triple removed), and a compressed file must end with .gz
+	 * @param deltaFile Name of the delta file
+	 * @throws IOException
+	 */
+	public void applyDelta(String deltaFile) throws IOException
+	{
+		File root = new File(cartellaDestinazione);
+		File[] shards = getShards(root);
+		Directory[] dirs = new Directory[shards.length];
+		List<Map<String, String>> commitData = new ArrayList<Map<String, String>>();
+		for (int i = 0; i < shards.length; i++)
+		{
+			dirs[i] = SimpleFSDirectory.open(shards[i]);
+			if (!DirectoryReader.indexExists(dirs[i])) throw new IOException("There is no index to be updated in " + shards[i]);
+			List<IndexCommit> commits = DirectoryReader.listCommits(dirs[i]);
+			commitData.add(new HashMap<String, String>(commits.get(commits.size() - 1).getUserData()));
+		}
+		boolean entityLayout = ENTITY_LAYOUT.equals(commitData.get(0).get(LAYOUT));
+		boolean encoded = Boolean.parseBoolean(commitData.get(0).get(DICTIONARY));
+		
+		//The dictionary of the index is kept up to date (indexes built without it just go on without it)
+		dictionary = Dictionary.load(root);
+		if (encoded && dictionary == null) throw new IOException("The dictionary of the index is missing in " + cartellaDestinazione);
+		LongHashSet topics = new LongHashSet();
+		
+		//Last change of the type of each person added or removed
+		Map<Long, Boolean> persons = new HashMap<Long, Boolean>();
+		if (!entityLayout)
+		{
+			for (Directory dir : dirs)
+			{
+				DirectoryReader reader = DirectoryReader.open(dir);
+				try {if (reader.getDocCount(SUBJECT_PREDICATE) == 0 && reader.maxDoc() > 0) throw new IOException("The index has no composite keys: it has to be rebuilt");}
+				finally {reader.close();}
+			}
+		}
+		
+		//Changes in order of appearance, grouped by subject
+		Map<String, List<String[]>> changes = new LinkedHashMap<String, List<String[]>>();
+		InputStream in = new FileInputStream(deltaFile);
+		if (deltaFile.endsWith(".gz")) in = new GZIPInputStream(in, 1 << 16);
+		BufferedReader br = new BufferedReader(new InputStreamReader(in));
+		try
+		{
+			TripleParser parser = new TripleParser();
+			String line;
+			while ((line = br.readLine()) != null)
+			{
+				line = line.trim();
+				if (line.equals("")) continue;
+				char op = line.charAt(0);
+				if ((op != '+' && op != '-') || !parser.parse(line.substring(1))) throw new IOException("Malformed delta line: " + line);
+				if (parser.isPredicate("type")) parser.reduceType();
+				String key = parser.getSubject();
+				String name = parser.getPredicate();
+				String value = parser.getObject();
+				if (properties != null && !properties.contains(name)) continue;
+				if (dictionary != null && Dictionary.isPersonType(name, value) && Dictionary.toNumber(key) >= 0) persons.put(Dictionary.toNumber(key), op == '+');
+				if (dictionary != null) name = encode(key, name, value, topics, null, encoded);
+				List<String[]> list = changes.get(key);
+				if (list == null) {list = new ArrayList<String[]>(); changes.put(key, list);}
+				list.add(new String[] {String.valueOf(op), name, value});
+			}
+		}
+		finally {br.close();}
+		
+		//Every shard is prepared before committing any of them
+		IndexWriter[] writers = new IndexWriter[dirs.length];
+		boolean completed = false;
+		try
+		{
+			for (int i = 0; i < dirs.length; i++)
+			{
+				IndexWriterConfig config = createConfig();
+				config.setOpenMode(OpenMode.APPEND);
+				writers[i] = new IndexWriter(dirs[i], config);
+				Map<String, List<String[]>> shardChanges = changes;
+				if (dirs.length > 1)
+				{
+					shardChanges = new LinkedHashMap<String, List<String[]>>();
+					for (Map.Entry<String, List<String[]>> entry : changes.entrySet())
+						if (getShard(entry.getKey(), dirs.length) == i) shardChanges.put(entry.getKey(), entry.getValue());
+				}
+				if (entityLayout) applyEntityDelta(dirs[i], writers[i], shardChanges);
+				else applyTripleDelta(writers[i], shardChanges);
+				commitData.get(i).put(DELTA_SOURCE, new File(deltaFile).getName());
+				writers[i].setCommitData(commitData.get(i));
+				writers[i].prepareCommit();
+			}
+			if (dictionary != null)
+			{
+				//Removed triples leave their entries in the dictionary, which may only grow
+				dictionary.addTopics(topics);
+				LongHashSet added = new LongHashSet(), removed = new LongHashSet();
+				for (Map.Entry<Long, Boolean> person : persons.entrySet()) (person.getValue() ? added : removed).add(person.getKey());
+				dictionary.addPersons(added);
+				dictionary.removePersons(removed);
+				dictionary.save(root);
+			}
+			for (IndexWriter writer : writers) writer.commit();
+			completed = true;
+		}
+		finally
+		{
+			for (IndexWriter writer : writers)
+			{
+				if (writer == null) continue;
+				if (completed) writer.close();
+				else writer.rollback();
+			}
+		}
+	}
+	
+	/**
+	 * Apply the changes of a delta file to an index with the triple layout
+	 * @param writer Index writer
+	 * @param changes Changes (operation, predicate, object) grouped by subject
+	 * @throws IOException
+	 */
+	private void applyTripleDelta(IndexWriter writer, Map<String, List<String[]>> changes) throws IOException
+	{
+		for (Map.Entry<String, List<String[]>> entry : changes.entrySet())
+		{
+			String key = entry.getKey();
+			for (String[] change : entry.getValue())
+			{
+				//Removing the triple before adding it prevents duplicates
+				BooleanQuery triple = new BooleanQuery();
+				triple.add(new TermQuery(new Term(SUBJECT_PREDICATE, compositeKey(key, change[1]))), Occur.MUST);
+				triple.add(new TermQuery(new Term(PREDICATE_OBJECT, compositeKey(change[1], change[2]))), Occur.MUST);
+				writer.deleteDocuments(triple);
+				if (change[0].equals("+")) writer.addDocument(createTriple(key, change[1], change[2]));
+			}
+		}
+	}
+	
+	/**
+	 * Apply the changes of a delta file to an index with the entity layout, rewriting only the documents of the subjects involved
+	 * @param dir Index directory
+	 * @param writer Index writer
+	 * @param changes Changes (operation, predicate, object) grouped by subject
+	 * @throws IOException
+	 */
+	private void applyEntityDelta(Directory dir, IndexWriter writer, Map<String, List<String[]>> changes) throws IOException
+	{
+		DirectoryReader reader = DirectoryReader.open(dir);
+		try
+		{
+			IndexSearcher is = new IndexSearcher(reader);
+			for (Map.Entry<String, List<String[]>> entry : changes.entrySet())
+			{
+				Term key = new Term("subject", entry.getKey());
+				
+				//Current properties of the subject, in their original order
+				List<String[]> values = new ArrayList<String[]>();
+				TopDocs docs = is.search(new TermQuery(key), Math.max(1, reader.docFreq(key)));
+				for (ScoreDoc scoreDoc : docs.scoreDocs)
+					for (IndexableField fld : is.doc(scoreDoc.doc).getFields())
+						if (!fld.name().equals("subject")) values.add(new String[] {fld.name(), fld.stringValue()});
+				
+				for (String[] change : entry.getValue())
+				{
+					for (int i = values.size() - 1; i >= 0; i--)
+						if (values.get(i)[0].equals(change[1]) && values.get(i)[1].equals(change[2])) values.remove(i);
+					if (change[0].equals("+")) values.add(new String[] {change[1], change[2]});
+				}
+				
+				if (values.isEmpty()) {writer.deleteDocuments(key); continue;}
+				Document entity = createEntity(entry.getKey());
+				for (String[] value : values) addProperty(entity, value[0], value[1]);
+				writer.updateDocument(key, entity);
+			}
+		}
+		finally {reader.close();}
+	}
+	
+	/**
+	 * Index the dump through a pipeline: this thread decompresses and splits the lines,
+	 * a pool of parsers creates the documents and a pool of writers adds them to the index
+	 * @param batcher Splitter of the dump into batches of lines
+	 * @param indexWriters Writers of the shards
+	 * @param coll Collection containing the string value of elements ID (null if every element is required)
+	 * @param skipped Number of lines skipped because indexed by a previous run
+	 * @return Number of lines of the dump indexed
+	 * @throws IOException
+	 */
+	private long indexPipelined(LineBatcher batcher, final IndexWriter[] indexWriters, final Collection<String> coll, long skipped) throws IOException
+	{
+		final BlockingQueue<LineBatch> lineQueue = new ArrayBlockingQueue<LineBatch>(queueDepth);
+		final BlockingQueue<List<Document>> docQueue = new ArrayBlockingQueue<List<Document>>(queueDepth);
+		final LineBatch endOfLines = new LineBatch(0);
+		final List<Document> endOfDocs = new ArrayList<Document>();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final AtomicLong written = new AtomicLong();
+		ExecutorService parsers = Executors.newFixedThreadPool(parserThreads);
+		ExecutorService writers = Executors.newFixedThreadPool(writerThreads);
+		try
+		{
+			List<Future<?>> parsing = new ArrayList<Future<?>>();
+			for (int i = 0; i < parserThreads; i++) parsing.add(parsers.submit(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					try
+					{
+						LineBatch lines;
+						while ((lines = take(lineQueue, failure)) != endOfLines) put(docQueue, parse(lines, coll), failure);
+						return null;
+					}
+					catch (Throwable t) {failure.compareAndSet(null, t); throw t;}
+				}
+			}));
+			List<Future<?>> writing = new ArrayList<Future<?>>();
+			for (int i = 0; i < writerThreads; i++) writing.add(writers.submit(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					try
+					{
+						List<Document> docs;
+						while ((docs = take(docQueue, failure)) != endOfDocs)
+						{
+							for (Document doc : docs) getWriter(indexWriters, doc).addDocument(doc);
+							written.incrementAndGet();
+						}
+						return null;
+					}
+					catch (Throwable t) {failure.compareAndSet(null, t); throw t;}
+				}
+			}));
+			
+			long lines = skipped;
+			long submitted = 0;
+			long nextCheckpoint = skipped + checkpointInterval;
+			LineBatch batch;
+			while ((batch = batcher.next()) != null)
+			{
+				put(lineQueue, batch, failure);
+				submitted++;
+				lines += batch.size();
+				if (checkpointInterval > 0 && lines >= nextCheckpoint)
+				{
+					//Every batch read so far has to be in the index before committing
+					while (written.get() < submitted)
+					{
+						if (failure.get() != null) throw new IOException("Indexing failed", failure.get());
+						Thread.sleep(10);
+					}
+					checkpoint(indexWriters, lines, false);
+					nextCheckpoint = lines + checkpointInterval;
+				}
+			}
+			for (int i = 0; i < parserThreads; i++) put(lineQueue, endOfLines, failure);
+			await(parsing, failure);
+			for (int i = 0; i < writerThreads; i++) put(docQueue, endOfDocs, failure);
+			await(writing, failure);
+			return lines;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Indexing interrupted", e);
+		}
+		finally
+		{
+			parsers.shutdownNow();
+			writers.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Wait for the end of the tasks of a stage, recording the first failure
+	 * @param tasks Tasks of the stage
+	 * @param failure First failure of the pipeline
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	private static void await(List<Future<?>> tasks, AtomicReference<Throwable> failure) throws InterruptedException, IOException
+	{
+		for (Future<?> task : tasks)
+		{
+			try {task.get();}
+			catch (ExecutionException e) {failure.compareAndSet(null, e.getCause());}
+		}
+		if (failure.get() != null) throw new IOException("Indexing failed", failure.get());
+	}
+	
+	/**
+	 * Put an element into a queue of the pipeline, giving up if any stage has failed
+	 * @param queue Queue of the pipeline
+	 * @param element Element to be put
+	 * @param failure First failure of the pipeline
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	private static <E> void put(BlockingQueue<E> queue, E element, AtomicReference<Throwable> failure) throws InterruptedException, IOException
+	{
+		while (!queue.offer(element, 100, TimeUnit.MILLISECONDS))
+			if (failure.get() != null) throw new IOException("Indexing failed", failure.get());
+	}
+	
+	/**
+	 * Take an element from a queue of the pipeline, giving up if any stage has failed
+	 * @param queue Queue of the pipeline
+	 * @param failure First failure of the pipeline
+	 * @return Element taken
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	private static <E> E take(BlockingQueue<E> queue, AtomicReference<Throwable> failure) throws InterruptedException, IOException
+	{
+		E element;
+		while ((element = queue.poll(100, TimeUnit.MILLISECONDS)) == null)
+			if (failure.get() != null) throw new IOException("Indexing failed", failure.get());
+		return element;
+	}
 
-}
\ No newline at end of file
+}
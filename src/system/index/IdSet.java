@@ -0,0 +1,79 @@
+package system.index;
+
+import java.util.AbstractSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Unordered set of IDs and values: Freebase MIDs are kept as their numeric values in a LongHashSet
+ * (8 bytes each, no String and no node), while the other strings go into a HashSet.
+ * The elements cannot be removed.
+ * @author Francesco Raco
+ *
+ */
+public class IdSet extends AbstractSet<String>
+{
+	/**
+	 * Numeric values of the MIDs
+	 */
+	private LongHashSet mids = new LongHashSet();
+
+	/**
+	 * Strings which are not MIDs (created the first time one is added)
+	 */
+	private Set<String> others;
+
+	@Override
+	public boolean add(String s)
+	{
+		long number = Dictionary.toNumber(s);
+		if (number >= 0) return mids.add(number);
+		if (others == null) others = new HashSet<String>();
+		return others.add(s);
+	}
+
+	@Override
+	public boolean contains(Object o)
+	{
+		if (!(o instanceof String)) return false;
+		long number = Dictionary.toNumber((String) o);
+		if (number >= 0) return mids.contains(number);
+		return others != null && others.contains(o);
+	}
+
+	@Override
+	public int size()
+	{
+		return mids.size() + (others == null ? 0 : others.size());
+	}
+
+	@Override
+	public Iterator<String> iterator()
+	{
+		final long[] numbers = mids.toArray();
+		final Iterator<String> iterator = others == null ? null : others.iterator();
+		return new Iterator<String>()
+		{
+			private int next;
+
+			@Override
+			public boolean hasNext()
+			{
+				return next < numbers.length || (iterator != null && iterator.hasNext());
+			}
+
+			@Override
+			public String next()
+			{
+				if (next < numbers.length) return Dictionary.toMid(numbers[next++]);
+				if (iterator == null) throw new NoSuchElementException();
+				return iterator.next();
+			}
+
+			@Override
+			public void remove() {throw new UnsupportedOperationException();}
+		};
+	}
+}
@@ -1,5 +1,6 @@
 package system.index;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -15,12 +16,26 @@ public class Indexer
 {
 	/**
 	 * Main method
-	 * @param args
+	 * @param args Empty to build the index, -store to build the memory-mapped triple store (read by Searcher
+	 * when registered with Searcher.register("store")), -graph to build the adjacency graph of the existing triple store
+	 * (which then serves its lookups), or the name of a delta file to be applied to the existing index
 	 * @throws IOException
 	 */
 	public static void main(String[] args) throws IOException
 	{
 		String path = "data/";
-		new FreeBaseIndexer(path + "fb_triples_film.gz", "index").index();
+		int cores = Runtime.getRuntime().availableProcessors();
+		FreeBaseIndexer indexer = new FreeBaseIndexer(path + "fb_triples_film.gz", "index");
+		if (args.length > 0 && args[0].equals("-store")) {new TripleStoreBuilder(path + "fb_triples_film.gz", "store").build(); return;}
+		if (args.length > 0 && args[0].equals("-graph")) {AdjacencyGraph.build(new File("store")); return;}
+		if (args.length > 0) {indexer.applyDelta(args[0]); return;}
+		
+		//One core is left to the thread decompressing the dump, the others parse and write
+		indexer.setThreads(Math.max(1, (cores - 1) / 2), Math.max(1, cores - 1 - (cores - 1) / 2));
+		
+		//A run killed before the end restarts from the last checkpoint
+		indexer.setCheckpointInterval(5000000);
+		indexer.setDictionaryEncoding(true);
+		indexer.index();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,134 @@
+package system.index;
+
+/**
+ * Batch of lines of the dump, stored one after another in a single char buffer
+ * @author Francesco Raco
+ *
+ */
+class LineBatch
+{
+	/**
+	 * Chars of every line of the batch
+	 */
+	private char[] chars;
+
+	/**
+	 * Number of chars used
+	 */
+	private int length;
+
+	/**
+	 * Offset of each line (the line i ends where the line i + 1 starts)
+	 */
+	private int[] starts;
+
+	/**
+	 * Number of lines
+	 */
+	private int size;
+
+	/**
+	 * Constructor with the expected number of lines
+	 * @param lines Expected number of lines
+	 */
+	LineBatch(int lines)
+	{
+		chars = new char[lines * 128];
+		starts = new int[lines + 2];
+	}
+
+	/**
+	 * Start a new line
+	 */
+	void startLine()
+	{
+		if (size + 1 >= starts.length)
+		{
+			int[] newStarts = new int[starts.length * 2];
+			System.arraycopy(starts, 0, newStarts, 0, starts.length);
+			starts = newStarts;
+		}
+		starts[size++] = length;
+		starts[size] = length;
+	}
+
+	/**
+	 * Append chars to the current line
+	 * @param buf Source buffer
+	 * @param off Offset of the first char
+	 * @param len Number of chars
+	 */
+	void append(char[] buf, int off, int len)
+	{
+		if (length + len > chars.length)
+		{
+			char[] newChars = new char[Math.max(length + len, chars.length * 2)];
+			System.arraycopy(chars, 0, newChars, 0, length);
+			chars = newChars;
+		}
+		System.arraycopy(buf, off, chars, length, len);
+		length += len;
+		starts[size] = length;
+	}
+
+	/**
+	 * Remove the last line
+	 */
+	void removeLast()
+	{
+		size--;
+		length = starts[size];
+	}
+
+	/**
+	 * Get the chars of every line
+	 * @return Char buffer
+	 */
+	char[] getChars() {return chars;}
+
+	/**
+	 * Get the number of lines
+	 * @return Number of lines
+	 */
+	int size() {return size;}
+
+	/**
+	 * Get the offset of a line
+	 * @param i Index of the line
+	 * @return Offset of the line in the char buffer
+	 */
+	int start(int i) {return starts[i];}
+
+	/**
+	 * Get the length of a line
+	 * @param i Index of the line
+	 * @return Length of the line
+	 */
+	int length(int i) {return starts[i + 1] - starts[i];}
+
+	/**
+	 * Get a line as a string
+	 * @param i Index of the line
+	 * @return String value of the line
+	 */
+	String getLine(int i) {return new String(chars, start(i), length(i));}
+
+	/**
+	 * Know whether two lines have the same raw subject (the text before the first blank)
+	 * @param i Index of the first line
+	 * @param j Index of the second line
+	 * @return Whether the two lines have the same raw subject or not
+	 */
+	boolean sameSubject(int i, int j)
+	{
+		int a = start(i), aEnd = a + length(i);
+		int b = start(j), bEnd = b + length(j);
+		while (true)
+		{
+			boolean aOver = a == aEnd || chars[a] == ' ' || chars[a] == '\t';
+			boolean bOver = b == bEnd || chars[b] == ' ' || chars[b] == '\t';
+			if (aOver || bOver) return aOver && bOver;
+			if (chars[a++] != chars[b++]) return false;
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package system.index;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splitter of the dump into batches of lines, where the triples of a subject never span two batches
+ * @author Francesco Raco
+ *
+ */
+class LineBatcher
+{
+	/**
+	 * Reader of the decompressed dump
+	 */
+	private Reader reader;
+
+	/**
+	 * Min number of lines of each batch
+	 */
+	private int batchSize;
+
+	/**
+	 * Buffer of chars read and not processed yet
+	 */
+	private char[] buf = new char[1 << 16];
+
+	/**
+	 * Position of the next char to be processed and number of chars in the buffer
+	 */
+	private int pos, limit;
+
+	/**
+	 * Whether the last line ended with a carriage return (a line feed following it is skipped)
+	 */
+	private boolean skipLF;
+
+	/**
+	 * First line of the next batch (already read while looking for the end of a subject)
+	 */
+	private char[] pending = new char[256];
+
+	/**
+	 * Length of the pending line (-1 if there is not)
+	 */
+	private int pendingLength = -1;
+
+	/**
+	 * Constructor with reader and batch size
+	 * @param reader Reader of the decompressed dump
+	 * @param batchSize Min number of lines of each batch
+	 */
+	LineBatcher(Reader reader, int batchSize)
+	{
+		this.reader = reader;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Read the next batch of lines
+	 * @return Batch of lines (null when the dump is over)
+	 * @throws IOException
+	 */
+	LineBatch next() throws IOException
+	{
+		LineBatch batch = new LineBatch(batchSize);
+		if (pendingLength >= 0)
+		{
+			batch.startLine();
+			batch.append(pending, 0, pendingLength);
+			pendingLength = -1;
+		}
+		while (readLine(batch))
+		{
+			//Keep together the triples of the last subject of the batch
+			int last = batch.size() - 1;
+			if (last >= batchSize && !batch.sameSubject(last - 1, last))
+			{
+				pendingLength = batch.length(last);
+				if (pending.length < pendingLength) pending = new char[Math.max(pendingLength, pending.length * 2)];
+				System.arraycopy(batch.getChars(), batch.start(last), pending, 0, pendingLength);
+				batch.removeLast();
+				return batch;
+			}
+		}
+		return batch.size() == 0 ? null : batch;
+	}
+
+	/**
+	 * Skip lines without storing them (used to resume an interrupted indexing)
+	 * @param lines Number of lines to be skipped
+	 * @return Number of lines actually skipped (less than required if the dump is over)
+	 * @throws IOException
+	 */
+	long skip(long lines) throws IOException
+	{
+		long skipped = 0;
+		while (skipped < lines && readLine(null)) skipped++;
+		return skipped;
+	}
+
+	/**
+	 * Read a line (terminated by a line feed, a carriage return or both, like BufferedReader.readLine) into a batch
+	 * @param batch Batch where to append the line (null if the line has to be discarded)
+	 * @return Whether a line has been read or not (the dump is over)
+	 * @throws IOException
+	 */
+	private boolean readLine(LineBatch batch) throws IOException
+	{
+		boolean started = false;
+		while (true)
+		{
+			if (pos == limit)
+			{
+				limit = reader.read(buf, 0, buf.length);
+				pos = 0;
+				if (limit <= 0) {limit = 0; return started;}
+			}
+			if (skipLF)
+			{
+				skipLF = false;
+				if (buf[pos] == '\n') {pos++; continue;}
+			}
+			if (!started && batch != null) batch.startLine();
+			started = true;
+			int i = pos;
+			while (i < limit && buf[i] != '\n' && buf[i] != '\r') i++;
+			if (batch != null) batch.append(buf, pos, i - pos);
+			if (i < limit)
+			{
+				skipLF = buf[i] == '\r';
+				pos = i + 1;
+				return true;
+			}
+			pos = limit;
+		}
+	}
+}
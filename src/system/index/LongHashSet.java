@@ -0,0 +1,141 @@
+package system.index;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive longs with open addressing (no boxing and no node per element)
+ * @author Francesco Raco
+ *
+ */
+public class LongHashSet
+{
+	/**
+	 * Value marking a free slot (it cannot be added to the set)
+	 */
+	private static final long FREE = Long.MIN_VALUE;
+
+	/**
+	 * Slots of the table
+	 */
+	private long[] slots;
+
+	/**
+	 * Number of elements
+	 */
+	private int size;
+
+	/**
+	 * Default constructor
+	 */
+	public LongHashSet() {this(16);}
+
+	/**
+	 * Constructor with the expected number of elements
+	 * @param expected Expected number of elements
+	 */
+	public LongHashSet(int expected)
+	{
+		int capacity = 16;
+		while (capacity < expected * 2) capacity <<= 1;
+		slots = new long[capacity];
+		Arrays.fill(slots, FREE);
+	}
+
+	/**
+	 * Get the slot where a value is or should be
+	 * @param table Slots of the table
+	 * @param value Value to be found
+	 * @return Index of the slot
+	 */
+	private static int slot(long[] table, long value)
+	{
+		long h = value * 0x9E3779B97F4A7C15L;
+		int mask = table.length - 1;
+		int i = (int) (h ^ (h >>> 32)) & mask;
+		while (table[i] != FREE && table[i] != value) i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 * Add a value
+	 * @param value Value to be added
+	 * @return Whether the value has been added (false if it was already in the set)
+	 */
+	public boolean add(long value)
+	{
+		if (value == FREE) throw new IllegalArgumentException("Value not allowed: " + value);
+		int i = slot(slots, value);
+		if (slots[i] == value) return false;
+		slots[i] = value;
+		if (++size * 2 > slots.length) rehash();
+		return true;
+	}
+
+	/**
+	 * Add every value of another set
+	 * @param set Set whose values have to be added
+	 */
+	public void addAll(LongHashSet set)
+	{
+		for (long value : set.slots) if (value != FREE) add(value);
+	}
+
+	/**
+	 * Know whether a value is in the set
+	 * @param value Value to be found
+	 * @return Whether the value is in the set or not
+	 */
+	public boolean contains(long value)
+	{
+		return value != FREE && slots[slot(slots, value)] == value;
+	}
+
+	/**
+	 * Get the number of elements
+	 * @return Number of elements
+	 */
+	public int size() {return size;}
+
+	/**
+	 * Remove every element
+	 */
+	public void clear()
+	{
+		Arrays.fill(slots, FREE);
+		size = 0;
+	}
+
+	/**
+	 * Get the elements in ascending order
+	 * @return Sorted array of the elements
+	 */
+	public long[] toSortedArray()
+	{
+		long[] values = toArray();
+		Arrays.sort(values);
+		return values;
+	}
+
+	/**
+	 * Get the elements in no particular order
+	 * @return Array of the elements
+	 */
+	public long[] toArray()
+	{
+		long[] values = new long[size];
+		int k = 0;
+		for (long value : slots) if (value != FREE) values[k++] = value;
+		return values;
+	}
+
+	/**
+	 * Double the table
+	 */
+	private void rehash()
+	{
+		long[] table = new long[slots.length * 2];
+		Arrays.fill(table, FREE);
+		for (long value : slots) if (value != FREE) table[slot(table, value)] = value;
+		slots = table;
+	}
+}
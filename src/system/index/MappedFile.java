@@ -0,0 +1,167 @@
+package system.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * File mapped into memory in chunks, so that files bigger than 2 GB can be mapped too
+ * (ints and longs are read at aligned positions, which never span two chunks).
+ * The file is read-only, unless it is created by the constructor with a length.
+ * @author Francesco Raco
+ *
+ */
+class MappedFile
+{
+	/**
+	 * Bits of the size of a chunk
+	 */
+	private static final int CHUNK_BITS = 30;
+
+	/**
+	 * Size of a chunk
+	 */
+	private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+	/**
+	 * Chunks of the file
+	 */
+	private MappedByteBuffer[] chunks;
+
+	/**
+	 * Length of the file
+	 */
+	private long length;
+
+	/**
+	 * Constructor mapping a file
+	 * @param file File to be mapped
+	 * @throws IOException
+	 */
+	MappedFile(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			length = channel.size();
+			chunks = new MappedByteBuffer[(int) ((length + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+			for (int i = 0; i < chunks.length; i++)
+			{
+				long start = (long) i << CHUNK_BITS;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, length - start));
+			}
+		}
+		finally {raf.close();}
+	}
+
+	/**
+	 * Constructor creating a file of a given length (filled with zeros) and mapping it to be written
+	 * @param file File to be created
+	 * @param length Length of the file in bytes
+	 * @throws IOException
+	 */
+	MappedFile(File file, long length) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.setLength(0);
+			raf.setLength(length);
+			FileChannel channel = raf.getChannel();
+			this.length = length;
+			chunks = new MappedByteBuffer[(int) ((length + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+			for (int i = 0; i < chunks.length; i++)
+			{
+				long start = (long) i << CHUNK_BITS;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(CHUNK_SIZE, length - start));
+			}
+		}
+		finally {raf.close();}
+	}
+
+	/**
+	 * Load the whole file into physical memory (outside the heap), so that the first reads do not wait for the disk
+	 */
+	void load()
+	{
+		for (MappedByteBuffer chunk : chunks) chunk.load();
+	}
+
+	/**
+	 * Write the changes of a file mapped to be written to the disk
+	 */
+	void force()
+	{
+		for (MappedByteBuffer chunk : chunks) chunk.force();
+	}
+
+	/**
+	 * Get the length of the file
+	 * @return Length of the file in bytes
+	 */
+	long length() {return length;}
+
+	/**
+	 * Get a byte
+	 * @param pos Position of the byte
+	 * @return Value of the byte
+	 */
+	byte getByte(long pos)
+	{
+		return chunks[(int) (pos >>> CHUNK_BITS)].get((int) (pos & (CHUNK_SIZE - 1)));
+	}
+
+	/**
+	 * Get an int
+	 * @param pos Position of the int (multiple of 4)
+	 * @return Value of the int
+	 */
+	int getInt(long pos)
+	{
+		return chunks[(int) (pos >>> CHUNK_BITS)].getInt((int) (pos & (CHUNK_SIZE - 1)));
+	}
+
+	/**
+	 * Get a long
+	 * @param pos Position of the long (multiple of 8)
+	 * @return Value of the long
+	 */
+	long getLong(long pos)
+	{
+		return chunks[(int) (pos >>> CHUNK_BITS)].getLong((int) (pos & (CHUNK_SIZE - 1)));
+	}
+
+	/**
+	 * Put an int (only if the file is mapped to be written)
+	 * @param pos Position of the int (multiple of 4)
+	 * @param value Value of the int
+	 */
+	void putInt(long pos, int value)
+	{
+		chunks[(int) (pos >>> CHUNK_BITS)].putInt((int) (pos & (CHUNK_SIZE - 1)), value);
+	}
+
+	/**
+	 * Put a long (only if the file is mapped to be written)
+	 * @param pos Position of the long (multiple of 8)
+	 * @param value Value of the long
+	 */
+	void putLong(long pos, long value)
+	{
+		chunks[(int) (pos >>> CHUNK_BITS)].putLong((int) (pos & (CHUNK_SIZE - 1)), value);
+	}
+
+	/**
+	 * Copy bytes into an array
+	 * @param pos Position of the first byte
+	 * @param dst Destination array
+	 * @param len Number of bytes
+	 */
+	void get(long pos, byte[] dst, int len)
+	{
+		for (int i = 0; i < len; i++) dst[i] = getByte(pos + i);
+	}
+}
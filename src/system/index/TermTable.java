@@ -0,0 +1,117 @@
+package system.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Memory-mapped table of the subjects and objects of a triple store: the UTF-8 bytes of the terms are
+ * stored one after another in ascending order, so the ID of a term is its position
+ * @author Francesco Raco
+ *
+ */
+class TermTable
+{
+	/**
+	 * Bytes of the terms
+	 */
+	private MappedFile terms;
+
+	/**
+	 * Offset of each term in the bytes (the term i ends where the term i + 1 starts)
+	 */
+	private MappedFile offsets;
+
+	/**
+	 * Number of terms
+	 */
+	private int size;
+
+	/**
+	 * Constructor mapping the files of the table
+	 * @param termsFile File containing the bytes of the terms
+	 * @param offsetsFile File containing the offsets of the terms
+	 * @throws IOException
+	 */
+	TermTable(File termsFile, File offsetsFile) throws IOException
+	{
+		terms = new MappedFile(termsFile);
+		offsets = new MappedFile(offsetsFile);
+		size = (int) (offsets.length() / 8 - 1);
+	}
+
+	/**
+	 * Compare two byte arrays as unsigned bytes (the order of the terms in the table)
+	 * @param a First array
+	 * @param b Second array
+	 * @return Negative, zero or positive value if the first array is less, equal or greater than the second one
+	 */
+	static int compare(byte[] a, byte[] b)
+	{
+		int length = Math.min(a.length, b.length);
+		for (int i = 0; i < length; i++)
+		{
+			int diff = (a[i] & 0xff) - (b[i] & 0xff);
+			if (diff != 0) return diff;
+		}
+		return a.length - b.length;
+	}
+
+	/**
+	 * Compare a term of the table with a key, without copying the term
+	 * @param id ID of the term
+	 * @param key UTF-8 bytes of the key
+	 * @return Negative, zero or positive value if the term is less, equal or greater than the key
+	 */
+	private int compare(int id, byte[] key)
+	{
+		long start = offsets.getLong(8L * id);
+		int length = (int) (offsets.getLong(8L * (id + 1)) - start);
+		int common = Math.min(length, key.length);
+		for (int i = 0; i < common; i++)
+		{
+			int diff = (terms.getByte(start + i) & 0xff) - (key[i] & 0xff);
+			if (diff != 0) return diff;
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * Get the ID of a term (binary search)
+	 * @param term String value of the term
+	 * @return ID of the term (-1 if the table does not contain it)
+	 */
+	int getId(String term)
+	{
+		byte[] key = term.getBytes(StandardCharsets.UTF_8);
+		int low = 0, high = size - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			int cmp = compare(mid, key);
+			if (cmp < 0) low = mid + 1;
+			else if (cmp > 0) high = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the term of an ID
+	 * @param id ID of the term
+	 * @return String value of the term
+	 */
+	String getTerm(int id)
+	{
+		long start = offsets.getLong(8L * id);
+		byte[] bytes = new byte[(int) (offsets.getLong(8L * (id + 1)) - start)];
+		terms.get(start, bytes, bytes.length);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Get the number of terms
+	 * @return Number of terms
+	 */
+	int size() {return size;}
+}
@@ -0,0 +1,282 @@
+package system.index;
+
+/**
+ * Allocation-free parser of the lines of the dump: it works on a char buffer and returns subject,
+ * predicate, object and language as offsets into a buffer reused line after line.
+ * The values produced are the same of FreeBaseIndexer.scan and FreeBaseIndexer.reduceTypes.
+ * An instance must not be shared between threads.
+ * @author Francesco Raco
+ *
+ */
+public class TripleParser
+{
+	/**
+	 * Max length reached by the object before its remaining tokens are dropped
+	 */
+	private static final int MAX_OBJECT = 512;
+
+	/**
+	 * Buffer containing the values of the last line parsed
+	 */
+	private char[] out = new char[1024];
+
+	/**
+	 * Buffer containing the last line parsed (only used by parse(String))
+	 */
+	private char[] in = new char[512];
+
+	/**
+	 * Offsets of the values of the last line parsed
+	 */
+	private int subjectStart, subjectEnd, predicateStart, predicateEnd, objectStart, objectEnd, languageStart, languageEnd;
+
+	/**
+	 * First free position of the output buffer
+	 */
+	private int length;
+
+	/**
+	 * Get the char of the line as seen by the parser (angle brackets and quotes become blanks)
+	 * @param c Char of the line
+	 * @return Char seen by the parser
+	 */
+	private static char map(char c)
+	{
+		return c == '<' || c == '>' || c == '"' ? ' ' : c;
+	}
+
+	/**
+	 * Parse a line
+	 * @param line String value of the line
+	 * @return Whether the line contains at least a subject and a predicate
+	 */
+	public boolean parse(String line)
+	{
+		int len = line.length();
+		if (in.length < len) in = new char[Math.max(len, in.length * 2)];
+		line.getChars(0, len, in, 0);
+		return parse(in, 0, len);
+	}
+
+	/**
+	 * Parse a line
+	 * @param buf Buffer containing the line
+	 * @param off Offset of the first char of the line
+	 * @param len Length of the line
+	 * @return Whether the line contains at least a subject and a predicate
+	 */
+	public boolean parse(char[] buf, int off, int len)
+	{
+		if (out.length < 3 * len + 8) out = new char[Math.max(3 * len + 8, out.length * 2)];
+		length = 0;
+		subjectStart = subjectEnd = predicateStart = predicateEnd = objectStart = objectEnd = languageStart = languageEnd = 0;
+
+		//Trim the line
+		int start = off, end = off + len;
+		while (start < end && map(buf[start]) <= ' ') start++;
+		while (end > start && map(buf[end - 1]) <= ' ') end--;
+		if (start == end) return false;
+
+		int count = 0;
+		boolean overflow = false;
+		int tokenStart = start;
+		while (tokenStart <= end && !overflow)
+		{
+			int tokenEnd = tokenStart;
+			while (tokenEnd < end && map(buf[tokenEnd]) != ' ') tokenEnd++;
+			int a = tokenStart, b = tokenEnd;
+			tokenStart = tokenEnd + 1;
+			while (a < b && buf[a] <= ' ') a++;
+			while (b > a && buf[b - 1] <= ' ') b--;
+
+			//The final dot of the last token (the end of the triple) is removed
+			if (tokenEnd == end && b > a && buf[b - 1] == '.') b--;
+			if (a == b || (b - a == 1 && buf[a] == '.')) continue;
+			count++;
+
+			//Only the part after the last slash or hash is kept
+			for (int i = b - 1; i >= a; i--) if (buf[i] == '/' || buf[i] == '#') {a = i + 1; break;}
+
+			if (count == 1) {subjectStart = length; length = copy(buf, a, b, length); subjectEnd = length;}
+			else if (count == 2) {predicateStart = length; length = copy(buf, a, b, length); predicateEnd = length; objectStart = objectEnd = length;}
+			else if (objectEnd - objectStart < MAX_OBJECT)
+			{
+				objectEnd = copy(buf, a, b, objectEnd);
+				out[objectEnd++] = ' ';
+			}
+			else
+			{
+				//The object is too long: like scan, the first token exceeding it becomes the object
+				objectStart = objectEnd;
+				objectEnd = copy(buf, a, b, objectStart);
+				overflow = true;
+			}
+		}
+		if (count < 2) return false;
+		if (!overflow)
+		{
+			while (objectStart < objectEnd && out[objectStart] <= ' ') objectStart++;
+			while (objectEnd > objectStart && out[objectEnd - 1] <= ' ') objectEnd--;
+		}
+		length = objectEnd;
+		findLanguage();
+		return true;
+	}
+
+	/**
+	 * Copy a region of a buffer into the output buffer
+	 * @param buf Source buffer
+	 * @param a First char to be copied
+	 * @param b End (excluded) of the region to be copied
+	 * @param to Position of the output buffer where to copy
+	 * @return End of the copy in the output buffer
+	 */
+	private int copy(char[] buf, int a, int b, int to)
+	{
+		System.arraycopy(buf, a, out, to, b - a);
+		return to + b - a;
+	}
+
+	/**
+	 * Find the language tag (last token of the object, if it starts with @)
+	 */
+	private void findLanguage()
+	{
+		int i = objectEnd;
+		while (i > objectStart && out[i - 1] != ' ') i--;
+		if (i < objectEnd && out[i] == '@') {languageStart = i; languageEnd = objectEnd;}
+		else languageStart = languageEnd = objectEnd;
+	}
+
+	/**
+	 * Normalize the object as a type (the same of FreeBaseIndexer.reduceTypes): dots and underscores
+	 * become blanks and only the last two words are kept
+	 */
+	public void reduceType()
+	{
+		int a = objectStart, b = objectEnd;
+		if (a == b) return;
+
+		//Count the tokens (a blank at the end does not start a further token)
+		int tokens = 1;
+		for (int i = a; i < b; i++) if (isTypeSeparator(out[i]) && i < b - 1) tokens++;
+
+		int to = length;
+		int index = 0;
+		boolean first = true;
+		int tokenStart = a;
+		for (int i = a; i <= b; i++)
+		{
+			if (i < b && !isTypeSeparator(out[i])) continue;
+			if (i == b && tokenStart == b) break;
+			if (index++ >= tokens - 2)
+			{
+				int s = tokenStart, e = i;
+				while (s < e && out[s] <= ' ') s++;
+				while (e > s && out[e - 1] <= ' ') e--;
+				if (!first) out[to++] = ' ';
+				first = false;
+				System.arraycopy(out, s, out, to, e - s);
+				to += e - s;
+			}
+			tokenStart = i + 1;
+		}
+		objectStart = length;
+		objectEnd = length = to;
+		findLanguage();
+	}
+
+	/**
+	 * Know whether a char separates the words of a type
+	 * @param c Char to be checked
+	 * @return Whether the char separates the words of a type or not
+	 */
+	private static boolean isTypeSeparator(char c)
+	{
+		return c == ' ' || c == '.' || c == '_';
+	}
+
+	/**
+	 * Know whether the predicate of the last line parsed is equal to a string
+	 * @param s String value to be compared
+	 * @return Whether the predicate is equal to the string or not
+	 */
+	public boolean isPredicate(String s)
+	{
+		if (predicateEnd - predicateStart != s.length()) return false;
+		for (int i = 0; i < s.length(); i++) if (out[predicateStart + i] != s.charAt(i)) return false;
+		return true;
+	}
+
+	/**
+	 * Get the buffer containing the values of the last line parsed (valid until the next line is parsed)
+	 * @return Char buffer
+	 */
+	public char[] getBuffer() {return out;}
+
+	/**
+	 * Get the offset of the subject
+	 * @return Offset of the subject in the buffer
+	 */
+	public int getSubjectStart() {return subjectStart;}
+
+	/**
+	 * Get the end (excluded) of the subject
+	 * @return End of the subject in the buffer
+	 */
+	public int getSubjectEnd() {return subjectEnd;}
+
+	/**
+	 * Get the offset of the predicate
+	 * @return Offset of the predicate in the buffer
+	 */
+	public int getPredicateStart() {return predicateStart;}
+
+	/**
+	 * Get the end (excluded) of the predicate
+	 * @return End of the predicate in the buffer
+	 */
+	public int getPredicateEnd() {return predicateEnd;}
+
+	/**
+	 * Get the offset of the object
+	 * @return Offset of the object in the buffer
+	 */
+	public int getObjectStart() {return objectStart;}
+
+	/**
+	 * Get the end (excluded) of the object
+	 * @return End of the object in the buffer
+	 */
+	public int getObjectEnd() {return objectEnd;}
+
+	/**
+	 * Get the offset of the language tag of the object (equal to its end if there is no tag)
+	 * @return Offset of the language tag in the buffer
+	 */
+	public int getLanguageStart() {return languageStart;}
+
+	/**
+	 * Get the end (excluded) of the language tag of the object
+	 * @return End of the language tag in the buffer
+	 */
+	public int getLanguageEnd() {return languageEnd;}
+
+	/**
+	 * Get the subject of the last line parsed
+	 * @return String value of the subject
+	 */
+	public String getSubject() {return new String(out, subjectStart, subjectEnd - subjectStart);}
+
+	/**
+	 * Get the predicate of the last line parsed
+	 * @return String value of the predicate
+	 */
+	public String getPredicate() {return new String(out, predicateStart, predicateEnd - predicateStart);}
+
+	/**
+	 * Get the object of the last line parsed
+	 * @return String value of the object
+	 */
+	public String getObject() {return new String(out, objectStart, objectEnd - objectStart);}
+}
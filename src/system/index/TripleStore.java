@@ -0,0 +1,274 @@
+package system.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only triple store built by TripleStoreBuilder: the triples are encoded as IDs of terms and codes
+ * of predicates and stored three times, sorted as SPO, POS and OSP, in memory-mapped files.
+ * Each lookup is a binary search followed by a range scan, without scoring and with almost no heap.
+ * If the directory also contains an AdjacencyGraph, the lookups of a term read its row of the graph instead.
+ * An instance can be shared between threads.
+ * @author Francesco Raco
+ *
+ */
+public class TripleStore
+{
+	/**
+	 * Name of the file containing the UTF-8 bytes of the terms (subjects and objects) in ascending order
+	 */
+	public static final String TERMS_FILE = "terms.dat";
+
+	/**
+	 * Name of the file containing the offsets of the terms
+	 */
+	public static final String TERM_OFFSETS_FILE = "terms.idx";
+
+	/**
+	 * Name of the file containing the triples sorted by subject, predicate and object
+	 */
+	public static final String SPO_FILE = "spo.dat";
+
+	/**
+	 * Name of the file containing the triples sorted by predicate, object and subject
+	 */
+	public static final String POS_FILE = "pos.dat";
+
+	/**
+	 * Name of the file containing the triples sorted by object, subject and predicate
+	 */
+	public static final String OSP_FILE = "osp.dat";
+
+	/**
+	 * Size in bytes of a triple (three ints)
+	 */
+	static final int RECORD_SIZE = 12;
+
+	/**
+	 * Terms of the store
+	 */
+	private TermTable terms;
+
+	/**
+	 * Dictionary of the predicates
+	 */
+	private Dictionary dictionary;
+
+	/**
+	 * Permutations of the triples
+	 */
+	private MappedFile spo, pos, osp;
+
+	/**
+	 * Adjacency graph of the triples (null if the directory does not contain it)
+	 */
+	private AdjacencyGraph graph;
+
+	/**
+	 * Private constructor
+	 */
+	private TripleStore() {}
+
+	/**
+	 * Know whether a directory contains a triple store
+	 * @param dir Directory to be checked
+	 * @return Whether the directory contains a triple store or not
+	 */
+	public static boolean exists(File dir)
+	{
+		for (String name : new String[] {TERMS_FILE, TERM_OFFSETS_FILE, SPO_FILE, POS_FILE, OSP_FILE, Dictionary.PREDICATES_FILE})
+			if (!new File(dir, name).isFile()) return false;
+		return true;
+	}
+
+	/**
+	 * Open the triple store contained by a directory
+	 * @param dir Directory of the triple store
+	 * @return Triple store opened
+	 * @throws IOException
+	 */
+	public static TripleStore open(File dir) throws IOException
+	{
+		if (!exists(dir)) throw new IOException("There is no triple store in " + dir);
+		TripleStore store = new TripleStore();
+		store.terms = new TermTable(new File(dir, TERMS_FILE), new File(dir, TERM_OFFSETS_FILE));
+		store.dictionary = Dictionary.load(dir);
+		store.spo = new MappedFile(new File(dir, SPO_FILE));
+		store.pos = new MappedFile(new File(dir, POS_FILE));
+		store.osp = new MappedFile(new File(dir, OSP_FILE));
+		if (AdjacencyGraph.exists(dir)) store.graph = AdjacencyGraph.open(dir);
+		return store;
+	}
+
+	/**
+	 * Get the dictionary of the predicates
+	 * @return Dictionary of the store
+	 */
+	public Dictionary getDictionary() {return dictionary;}
+
+	/**
+	 * Get the number of triples
+	 * @return Number of triples
+	 */
+	public long size() {return spo.length() / RECORD_SIZE;}
+
+	/**
+	 * Know whether the lookups are served by the adjacency graph of the store
+	 * @return Whether the store has an adjacency graph or not
+	 */
+	public boolean hasGraph() {return graph != null;}
+
+	/**
+	 * Compare the first columns of a triple with a prefix
+	 * @param triples Permutation of the triples
+	 * @param i Index of the triple
+	 * @param first Value of the first column
+	 * @param second Value of the second column (-1 if the prefix has one column)
+	 * @return Negative, zero or positive value if the triple is less, equal or greater than the prefix
+	 */
+	private static int compare(MappedFile triples, long i, int first, int second)
+	{
+		int value = triples.getInt(i * RECORD_SIZE);
+		if (value != first) return value < first ? -1 : 1;
+		if (second < 0) return 0;
+		value = triples.getInt(i * RECORD_SIZE + 4);
+		return value == second ? 0 : value < second ? -1 : 1;
+	}
+
+	/**
+	 * Get the range of the triples starting with a prefix (two binary searches)
+	 * @param triples Permutation of the triples
+	 * @param first Value of the first column
+	 * @param second Value of the second column (-1 if the prefix has one column)
+	 * @return Index of the first triple and end (excluded) of the range
+	 */
+	private static long[] range(MappedFile triples, int first, int second)
+	{
+		long size = triples.length() / RECORD_SIZE;
+		long low = 0, high = size;
+		while (low < high)
+		{
+			long mid = (low + high) >>> 1;
+			if (compare(triples, mid, first, second) < 0) low = mid + 1;
+			else high = mid;
+		}
+		long start = low;
+		high = size;
+		while (low < high)
+		{
+			long mid = (low + high) >>> 1;
+			if (compare(triples, mid, first, second) <= 0) low = mid + 1;
+			else high = mid;
+		}
+		return new long[] {start, low};
+	}
+
+	/**
+	 * Get the objects of a subject and a predicate
+	 * @param subject String value of the subject
+	 * @param predicate String value of the predicate
+	 * @return List of objects in ascending order of their IDs (empty if there are not)
+	 */
+	public List<String> getObjects(String subject, String predicate)
+	{
+		List<String> objects = new ArrayList<String>();
+		int s = terms.getId(subject);
+		int p = dictionary.getPredicateCode(predicate);
+		if (s < 0 || p < 0) return objects;
+		if (graph != null)
+		{
+			long[] range = graph.getOutRange(s, p);
+			for (long i = range[0]; i < range[1]; i++) objects.add(terms.getTerm(graph.getOutTerm(i)));
+			return objects;
+		}
+		long[] range = range(spo, s, p);
+		for (long i = range[0]; i < range[1]; i++) objects.add(terms.getTerm(spo.getInt(i * RECORD_SIZE + 8)));
+		return objects;
+	}
+
+	/**
+	 * Get the subjects of a predicate and an object
+	 * @param predicate String value of the predicate
+	 * @param object String value of the object
+	 * @return List of subjects in ascending order of their IDs (empty if there are not)
+	 */
+	public List<String> getSubjects(String predicate, String object)
+	{
+		List<String> subjects = new ArrayList<String>();
+		int p = dictionary.getPredicateCode(predicate);
+		int o = terms.getId(object);
+		if (p < 0 || o < 0) return subjects;
+		if (graph != null)
+		{
+			long[] range = graph.getInRange(o, p);
+			for (long i = range[0]; i < range[1]; i++) subjects.add(terms.getTerm(graph.getInTerm(i)));
+			return subjects;
+		}
+		long[] range = range(pos, p, o);
+		for (long i = range[0]; i < range[1]; i++) subjects.add(terms.getTerm(pos.getInt(i * RECORD_SIZE + 8)));
+		return subjects;
+	}
+
+	/**
+	 * Get every property of a subject
+	 * @param subject String value of the subject
+	 * @return Map whose keys are predicates and whose values are the lists of objects related
+	 */
+	public Map<String, List<String>> getProperties(String subject)
+	{
+		Map<String, List<String>> properties = new LinkedHashMap<String, List<String>>();
+		int s = terms.getId(subject);
+		if (s < 0) return properties;
+		if (graph != null)
+		{
+			long[] range = graph.getOutRange(s, -1);
+			for (long i = range[0]; i < range[1]; i++)
+				add(properties, dictionary.getPredicate(graph.getOutPredicate(i)), terms.getTerm(graph.getOutTerm(i)));
+			return properties;
+		}
+		long[] range = range(spo, s, -1);
+		for (long i = range[0]; i < range[1]; i++)
+			add(properties, dictionary.getPredicate(spo.getInt(i * RECORD_SIZE + 4)), terms.getTerm(spo.getInt(i * RECORD_SIZE + 8)));
+		return properties;
+	}
+
+	/**
+	 * Get every triple whose object is a term
+	 * @param object String value of the object
+	 * @return Map whose keys are predicates and whose values are the lists of subjects related
+	 */
+	public Map<String, List<String>> getReferrers(String object)
+	{
+		Map<String, List<String>> referrers = new LinkedHashMap<String, List<String>>();
+		int o = terms.getId(object);
+		if (o < 0) return referrers;
+		if (graph != null)
+		{
+			long[] range = graph.getInRange(o, -1);
+			for (long i = range[0]; i < range[1]; i++)
+				add(referrers, dictionary.getPredicate(graph.getInPredicate(i)), terms.getTerm(graph.getInTerm(i)));
+			return referrers;
+		}
+		long[] range = range(osp, o, -1);
+		for (long i = range[0]; i < range[1]; i++)
+			add(referrers, dictionary.getPredicate(osp.getInt(i * RECORD_SIZE + 8)), terms.getTerm(osp.getInt(i * RECORD_SIZE + 4)));
+		return referrers;
+	}
+
+	/**
+	 * Add a value to the list of a key
+	 * @param map Map of lists
+	 * @param key Key of the list
+	 * @param value Value to be added
+	 */
+	private static void add(Map<String, List<String>> map, String key, String value)
+	{
+		List<String> values = map.get(key);
+		if (values == null) {values = new ArrayList<String>(); map.put(key, values);}
+		values.add(value);
+	}
+}
@@ -0,0 +1,483 @@
+package system.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Builder of a TripleStore from the dump: a first pass collects and sorts the terms, a second pass
+ * encodes the triples and sorts them in the three permutations. Both passes sort runs of bounded
+ * size and merge them from disk, so the heap needed does not depend on the size of the dump.
+ * The triples are the same indexed by FreeBaseIndexer.
+ * @author Francesco Raco
+ *
+ */
+public class TripleStoreBuilder
+{
+	/**
+	 * Min number of lines read together from the dump
+	 */
+	private static final int BATCH_SIZE = 2000;
+
+	/**
+	 * Max number of distinct terms sorted in memory
+	 */
+	private static final int TERM_RUN_SIZE = 2000000;
+
+	/**
+	 * Max number of triples sorted in memory
+	 */
+	private static final int TRIPLE_RUN_SIZE = 4000000;
+
+	/**
+	 * Order of the columns (subject 0, predicate 1, object 2) of each permutation
+	 */
+	private static final int[][] PERMUTATIONS = {{0, 1, 2}, {1, 2, 0}, {2, 0, 1}};
+
+	/**
+	 * Name of the file of each permutation
+	 */
+	private static final String[] PERMUTATION_FILES = {TripleStore.SPO_FILE, TripleStore.POS_FILE, TripleStore.OSP_FILE};
+
+	/**
+	 * Receiver of the triples read from the dump
+	 */
+	private interface TripleHandler
+	{
+		/**
+		 * Receive a triple
+		 * @param key String value of the subject
+		 * @param name String value of the predicate
+		 * @param value String value of the object
+		 * @throws IOException
+		 */
+		void triple(String key, String name, String value) throws IOException;
+	}
+
+	/**
+	 * Name of compressed file
+	 */
+	private String nomeFileGz;
+
+	/**
+	 * Name of the directory of the triple store
+	 */
+	private String cartellaDestinazione;
+
+	/**
+	 * Set of properties according to which the creation of the store has to be restricted
+	 */
+	private Set<String> properties;
+
+	/**
+	 * Constructor with names of compressed file and triple store directory
+	 * @param nomeFileGz Name of compressed file
+	 * @param cartellaDestinazione Name of the directory of the triple store
+	 */
+	public TripleStoreBuilder(String nomeFileGz, String cartellaDestinazione)
+	{
+		this.nomeFileGz = nomeFileGz;
+		this.cartellaDestinazione = cartellaDestinazione;
+	}
+
+	/**
+	 * Set the properties according to which the creation of the store has to be restricted
+	 * @param properties
+	 */
+	public void setProperties(Set<String> properties) {this.properties = properties;}
+
+	/**
+	 * Create the triple store
+	 * @throws IOException
+	 */
+	public void build() throws IOException {build(null);}
+
+	/**
+	 * Create the triple store only for elements chosen
+	 * @param coll Collection containing the string value of elements ID (null if every element is required)
+	 * @throws IOException
+	 */
+	public void build(Collection<String> coll) throws IOException
+	{
+		final File dir = new File(cartellaDestinazione);
+		if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Unable to create " + dir);
+		final Dictionary dictionary = new Dictionary();
+		
+		//The store is incomplete (and ignored by TripleStore.exists) until its dictionary is saved
+		File predicates = new File(dir, Dictionary.PREDICATES_FILE);
+		if (predicates.exists() && !predicates.delete()) throw new IOException("Unable to replace " + predicates);
+		final List<File> termRuns = new ArrayList<File>();
+		final List<List<File>> tripleRuns = new ArrayList<List<File>>();
+		for (int i = 0; i < PERMUTATIONS.length; i++) tripleRuns.add(new ArrayList<File>());
+		try
+		{
+			//First pass: distinct subjects and objects, sorted into runs
+			final Set<String> run = new HashSet<String>();
+			final LongHashSet topics = new LongHashSet();
+			final LongHashSet persons = new LongHashSet();
+			read(coll, new TripleHandler()
+			{
+				@Override
+				public void triple(String key, String name, String value) throws IOException
+				{
+					dictionary.addPredicate(name);
+					run.add(key);
+					run.add(value);
+					long number = Dictionary.toNumber(key);
+					if (number >= 0) topics.add(number);
+					if (Dictionary.isPersonType(name, value) && Dictionary.toNumber(key) >= 0) persons.add(Dictionary.toNumber(key));
+					number = Dictionary.toNumber(value);
+					if (number >= 0) topics.add(number);
+					if (run.size() >= TERM_RUN_SIZE) {termRuns.add(writeTermRun(dir, run)); run.clear();}
+				}
+			});
+			if (!run.isEmpty()) termRuns.add(writeTermRun(dir, run));
+			dictionary.addTopics(topics);
+			dictionary.addPersons(persons);
+			mergeTerms(dir, termRuns);
+
+			//Second pass: triples encoded as IDs, sorted into runs for each permutation
+			final TermTable terms = new TermTable(new File(dir, TripleStore.TERMS_FILE), new File(dir, TripleStore.TERM_OFFSETS_FILE));
+			final int[] triples = new int[TRIPLE_RUN_SIZE * 3];
+			final int[] size = new int[1];
+			read(coll, new TripleHandler()
+			{
+				private String lastKey;
+				private int lastId;
+
+				@Override
+				public void triple(String key, String name, String value) throws IOException
+				{
+					//Triples of a subject are contiguous in the dump, so its ID is looked up once
+					if (!key.equals(lastKey)) {lastKey = key; lastId = terms.getId(key);}
+					int k = 3 * size[0]++;
+					triples[k] = lastId;
+					triples[k + 1] = dictionary.getPredicateCode(name);
+					triples[k + 2] = terms.getId(value);
+					if (size[0] == TRIPLE_RUN_SIZE) {writeTripleRuns(dir, triples, size[0], tripleRuns); size[0] = 0;}
+				}
+			});
+			if (size[0] > 0) writeTripleRuns(dir, triples, size[0], tripleRuns);
+			for (int i = 0; i < PERMUTATIONS.length; i++) mergeTriples(new File(dir, PERMUTATION_FILES[i]), tripleRuns.get(i));
+			dictionary.save(dir);
+		}
+		finally
+		{
+			for (File file : termRuns) file.delete();
+			for (List<File> runs : tripleRuns) for (File file : runs) file.delete();
+		}
+	}
+
+	/**
+	 * Read the triples of the dump (the same indexed by FreeBaseIndexer)
+	 * @param coll Collection containing the string value of elements ID (null if every element is required)
+	 * @param handler Receiver of the triples
+	 * @throws IOException
+	 */
+	private void read(Collection<String> coll, TripleHandler handler) throws IOException
+	{
+		InputStreamReader isr = new InputStreamReader(new GZIPInputStream(new FileInputStream(nomeFileGz), 1 << 16));
+		try
+		{
+			LineBatcher batcher = new LineBatcher(isr, BATCH_SIZE);
+			TripleParser parser = new TripleParser();
+			LineBatch lines;
+			while ((lines = batcher.next()) != null)
+			{
+				for (int i = 0; i < lines.size(); i++)
+				{
+					if (lines.length(i) == 0) continue;
+					if (!parser.parse(lines.getChars(), lines.start(i), lines.length(i))) throw new IOException("Malformed triple: " + lines.getLine(i));
+					if (parser.isPredicate("type")) parser.reduceType();
+					String key = parser.getSubject();
+					String name = parser.getPredicate();
+					if ((coll == null || coll.contains(key)) && (properties == null || properties.contains(name)))
+						handler.triple(key, name, parser.getObject());
+				}
+			}
+		}
+		finally {isr.close();}
+	}
+
+	/**
+	 * Write a run of terms sorted as in the term table
+	 * @param dir Directory of the triple store
+	 * @param run Distinct terms of the run
+	 * @return File of the run
+	 * @throws IOException
+	 */
+	private static File writeTermRun(File dir, Set<String> run) throws IOException
+	{
+		List<byte[]> sorted = new ArrayList<byte[]>(run.size());
+		for (String term : run) sorted.add(term.getBytes(StandardCharsets.UTF_8));
+		Collections.sort(sorted, new Comparator<byte[]>()
+		{
+			@Override
+			public int compare(byte[] a, byte[] b) {return TermTable.compare(a, b);}
+		});
+		File file = File.createTempFile("terms", ".run", dir);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try
+		{
+			for (byte[] term : sorted)
+			{
+				out.writeInt(term.length);
+				out.write(term);
+			}
+		}
+		finally {out.close();}
+		return file;
+	}
+
+	/**
+	 * Run being merged, with its current term
+	 */
+	private static class TermRun
+	{
+		DataInputStream in;
+		byte[] term;
+
+		TermRun(File file) throws IOException
+		{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		}
+
+		boolean next() throws IOException
+		{
+			int length;
+			try {length = in.readInt();}
+			catch (EOFException e) {in.close(); return false;}
+			term = new byte[length];
+			in.readFully(term);
+			return true;
+		}
+	}
+
+	/**
+	 * Merge the runs of terms into the term table, removing duplicates
+	 * @param dir Directory of the triple store
+	 * @param runs Files of the runs
+	 * @throws IOException
+	 */
+	private static void mergeTerms(File dir, List<File> runs) throws IOException
+	{
+		PriorityQueue<TermRun> queue = new PriorityQueue<TermRun>(Math.max(1, runs.size()), new Comparator<TermRun>()
+		{
+			@Override
+			public int compare(TermRun a, TermRun b) {return TermTable.compare(a.term, b.term);}
+		});
+		try
+		{
+			for (File file : runs)
+			{
+				TermRun run = new TermRun(file);
+				if (run.next()) queue.add(run);
+			}
+			BufferedOutputStream terms = new BufferedOutputStream(new FileOutputStream(new File(dir, TripleStore.TERMS_FILE)), 1 << 16);
+			DataOutputStream offsets = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, TripleStore.TERM_OFFSETS_FILE)), 1 << 16));
+			try
+			{
+				long offset = 0;
+				byte[] last = null;
+				while (!queue.isEmpty())
+				{
+					TermRun run = queue.poll();
+					if (last == null || TermTable.compare(last, run.term) != 0)
+					{
+						offsets.writeLong(offset);
+						terms.write(run.term);
+						offset += run.term.length;
+						last = run.term;
+					}
+					if (run.next()) queue.add(run);
+				}
+				offsets.writeLong(offset);
+			}
+			finally
+			{
+				terms.close();
+				offsets.close();
+			}
+		}
+		finally {for (TermRun run : queue) run.in.close();}
+	}
+
+	/**
+	 * Write a run of triples for each permutation
+	 * @param dir Directory of the triple store
+	 * @param triples Triples (subject, predicate, object) one after another
+	 * @param size Number of triples
+	 * @param runs Files of the runs of each permutation, where the new runs are added
+	 * @throws IOException
+	 */
+	private static void writeTripleRuns(File dir, int[] triples, int size, List<List<File>> runs) throws IOException
+	{
+		int[] permuted = new int[size * 3];
+		for (int p = 0; p < PERMUTATIONS.length; p++)
+		{
+			int[] order = PERMUTATIONS[p];
+			for (int i = 0; i < size; i++)
+			{
+				permuted[3 * i] = triples[3 * i + order[0]];
+				permuted[3 * i + 1] = triples[3 * i + order[1]];
+				permuted[3 * i + 2] = triples[3 * i + order[2]];
+			}
+			sort(permuted, 0, size - 1);
+			File file = File.createTempFile("triples", ".run", dir);
+			runs.get(p).add(file);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			try {for (int i = 0; i < 3 * size; i++) out.writeInt(permuted[i]);}
+			finally {out.close();}
+		}
+	}
+
+	/**
+	 * Compare two triples of an array
+	 * @param a Triples one after another
+	 * @param i Index of the first triple
+	 * @param j Index of the second triple
+	 * @return Negative, zero or positive value if the first triple is less, equal or greater than the second one
+	 */
+	private static int compare(int[] a, int i, int j)
+	{
+		for (int k = 0; k < 3; k++)
+		{
+			int x = a[3 * i + k], y = a[3 * j + k];
+			if (x != y) return x < y ? -1 : 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Swap two triples of an array
+	 * @param a Triples one after another
+	 * @param i Index of the first triple
+	 * @param j Index of the second triple
+	 */
+	private static void swap(int[] a, int i, int j)
+	{
+		for (int k = 0; k < 3; k++)
+		{
+			int t = a[3 * i + k];
+			a[3 * i + k] = a[3 * j + k];
+			a[3 * j + k] = t;
+		}
+	}
+
+	/**
+	 * Sort the triples of an array in place (quicksort, recursing on the smaller part)
+	 * @param a Triples one after another
+	 * @param low Index of the first triple
+	 * @param high Index of the last triple
+	 */
+	private static void sort(int[] a, int low, int high)
+	{
+		while (high - low > 16)
+		{
+			//Median of three as pivot, moved to the first position
+			int mid = (low + high) >>> 1;
+			if (compare(a, mid, low) < 0) swap(a, mid, low);
+			if (compare(a, high, low) < 0) swap(a, high, low);
+			if (compare(a, high, mid) < 0) swap(a, high, mid);
+			swap(a, low, mid);
+			int i = low, j = high + 1;
+			while (true)
+			{
+				while (compare(a, ++i, low) < 0) if (i == high) break;
+				while (compare(a, low, --j) < 0) if (j == low) break;
+				if (i >= j) break;
+				swap(a, i, j);
+			}
+			swap(a, low, j);
+			if (j - low < high - j) {sort(a, low, j - 1); low = j + 1;}
+			else {sort(a, j + 1, high); high = j - 1;}
+		}
+		for (int i = low + 1; i <= high; i++)
+			for (int j = i; j > low && compare(a, j, j - 1) < 0; j--) swap(a, j, j - 1);
+	}
+
+	/**
+	 * Run being merged, with its current triple
+	 */
+	private static class TripleRun
+	{
+		DataInputStream in;
+		int[] triple = new int[3];
+
+		TripleRun(File file) throws IOException
+		{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		}
+
+		boolean next() throws IOException
+		{
+			try {triple[0] = in.readInt();}
+			catch (EOFException e) {in.close(); return false;}
+			triple[1] = in.readInt();
+			triple[2] = in.readInt();
+			return true;
+		}
+	}
+
+	/**
+	 * Merge the runs of a permutation into a single sorted file, removing duplicate triples
+	 * @param file File of the permutation
+	 * @param runs Files of the runs of the permutation
+	 * @throws IOException
+	 */
+	private static void mergeTriples(File file, List<File> runs) throws IOException
+	{
+		PriorityQueue<TripleRun> queue = new PriorityQueue<TripleRun>(Math.max(1, runs.size()), new Comparator<TripleRun>()
+		{
+			@Override
+			public int compare(TripleRun a, TripleRun b)
+			{
+				for (int k = 0; k < 3; k++) if (a.triple[k] != b.triple[k]) return a.triple[k] < b.triple[k] ? -1 : 1;
+				return 0;
+			}
+		});
+		try
+		{
+			for (File run : runs)
+			{
+				TripleRun tripleRun = new TripleRun(run);
+				if (tripleRun.next()) queue.add(tripleRun);
+			}
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			try
+			{
+				int[] last = null;
+				while (!queue.isEmpty())
+				{
+					TripleRun run = queue.poll();
+					int[] triple = run.triple;
+					if (last == null || last[0] != triple[0] || last[1] != triple[1] || last[2] != triple[2])
+					{
+						for (int value : triple) out.writeInt(value);
+						last = triple.clone();
+					}
+					if (run.next()) queue.add(run);
+				}
+			}
+			finally {out.close();}
+		}
+		finally {for (TripleRun run : queue) run.in.close();}
+	}
+}
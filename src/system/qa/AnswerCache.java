@@ -0,0 +1,222 @@
+package system.qa;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the answers of a machine, keyed by normalized question, index and language, so that a question asked again
+ * is answered without searching the index. Entries are evicted from the least recently used when the cache is full, expire
+ * after a time to live, and are dropped when the index they have been read from has been reopened or closed since
+ * (the generation of its searcher is stored with each answer).
+ * @author Francesco Raco
+ *
+ */
+public class AnswerCache
+{
+	/**
+	 * Default max number of answers
+	 */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	/**
+	 * Default time to live of an answer in milliseconds
+	 */
+	public static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(10);
+
+	/**
+	 * Key of an answer
+	 */
+	private static final class Key
+	{
+		private final String question, index, lang;
+		private final int hash;
+
+		private Key(String question, String index, String lang)
+		{
+			this.question = question;
+			this.index = index;
+			this.lang = lang;
+			hash = (question.hashCode() * 31 + index.hashCode()) * 31 + lang.hashCode();
+		}
+
+		@Override
+		public int hashCode() {return hash;}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key)) return false;
+			Key k = (Key) o;
+			return hash == k.hash && question.equals(k.question) && index.equals(k.index) && lang.equals(k.lang);
+		}
+	}
+
+	/**
+	 * Answer cached
+	 */
+	private static final class Entry
+	{
+		private final String answer;
+		private final long generation;
+		private final long expiration;
+
+		private Entry(String answer, long generation, long expiration)
+		{
+			this.answer = answer;
+			this.generation = generation;
+			this.expiration = expiration;
+		}
+	}
+
+	/**
+	 * Answers, from the least to the most recently used
+	 */
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+	/**
+	 * Max number of answers
+	 */
+	private final int capacity;
+
+	/**
+	 * Time to live of an answer in nanoseconds
+	 */
+	private final long ttl;
+
+	/**
+	 * Counters of the cache
+	 */
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), evictions = new AtomicLong(),
+			expirations = new AtomicLong(), invalidations = new AtomicLong();
+
+	/**
+	 * Constructor with default capacity and time to live
+	 */
+	public AnswerCache()
+	{
+		this(DEFAULT_CAPACITY, DEFAULT_TTL);
+	}
+
+	/**
+	 * Constructor
+	 * @param capacity Max number of answers (0 disables the cache)
+	 * @param ttl Time to live of an answer in milliseconds
+	 */
+	public AnswerCache(int capacity, long ttl)
+	{
+		this.capacity = Math.max(0, capacity);
+		this.ttl = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ttl));
+	}
+
+	/**
+	 * Get a cache with the same capacity and time to live, but empty
+	 * @return Empty cache
+	 */
+	AnswerCache emptyCopy()
+	{
+		return new AnswerCache(capacity, TimeUnit.NANOSECONDS.toMillis(ttl));
+	}
+
+	/**
+	 * Get the answer of a question
+	 * @param question String value of the normalized question
+	 * @param index Name of the index searched
+	 * @param lang String value of the language of the labels
+	 * @param generation Current generation of the index searched
+	 * @return Answer (null if it is not cached, has expired or has been read from a previous generation of the index)
+	 */
+	public String get(String question, String index, String lang, long generation)
+	{
+		if (capacity == 0) return null;
+		Key key = new Key(question, index, lang);
+		Entry entry;
+		synchronized (entries)
+		{
+			entry = entries.get(key);
+			if (entry != null && entry.generation != generation) {entries.remove(key); invalidations.incrementAndGet(); entry = null;}
+			else if (entry != null && System.nanoTime() - entry.expiration >= 0) {entries.remove(key); expirations.incrementAndGet(); entry = null;}
+		}
+		if (entry == null) {misses.incrementAndGet(); return null;}
+		hits.incrementAndGet();
+		return entry.answer;
+	}
+
+	/**
+	 * Put the answer of a question
+	 * @param question String value of the normalized question
+	 * @param index Name of the index searched
+	 * @param lang String value of the language of the labels
+	 * @param generation Generation of the index when the question has started to be answered
+	 * @param answer Answer of the question
+	 */
+	public void put(String question, String index, String lang, long generation, String answer)
+	{
+		if (capacity == 0) return;
+		Entry entry = new Entry(answer, generation, System.nanoTime() + ttl);
+		synchronized (entries)
+		{
+			entries.put(new Key(question, index, lang), entry);
+			if (entries.size() <= capacity) return;
+			Iterator<Key> eldest = entries.keySet().iterator();
+			eldest.next();
+			eldest.remove();
+		}
+		evictions.incrementAndGet();
+	}
+
+	/**
+	 * Remove every answer (the counters are kept)
+	 */
+	public void clear()
+	{
+		synchronized (entries) {entries.clear();}
+	}
+
+	/**
+	 * Get the number of questions answered by the cache
+	 * @return Number of hits
+	 */
+	public long getHits() {return hits.get();}
+
+	/**
+	 * Get the number of questions not answered by the cache
+	 * @return Number of misses
+	 */
+	public long getMisses() {return misses.get();}
+
+	/**
+	 * Get the number of answers evicted to keep the cache into its capacity
+	 * @return Number of evictions
+	 */
+	public long getEvictions() {return evictions.get();}
+
+	/**
+	 * Get the number of answers dropped because their time to live has passed
+	 * @return Number of expirations
+	 */
+	public long getExpirations() {return expirations.get();}
+
+	/**
+	 * Get the number of answers dropped because the index has been reopened or closed since they have been read
+	 * @return Number of invalidations
+	 */
+	public long getInvalidations() {return invalidations.get();}
+
+	/**
+	 * Get the number of answers
+	 * @return Number of answers
+	 */
+	public int size()
+	{
+		synchronized (entries) {return entries.size();}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "hits " + getHits() + ", misses " + getMisses() + ", evictions " + getEvictions() + ", expirations " + getExpirations()
+				+ ", invalidations " + getInvalidations() + ", entries " + size();
+	}
+}
@@ -5,13 +5,18 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import org.apache.lucene.queryparser.classic.ParseException;
 import system.Element;
 import system.Language;
@@ -25,42 +30,84 @@ import system.UncorrectIdException;
 import system.search.Searcher;
 
 /**
- * Machine
+ * Machine: it does not change while answering, so a single instance can answer the questions of many clients
+ * at the same time (everything belonging to a question is kept by its Request)
  * @author Francesco Raco
  *
  */
 public class Machine
 {
 	/**
-	 * Instance of Searcher
+	 * Language of the labels of the answers when the question does not choose one
 	 */
-	private Searcher s = Searcher.getInstance();
+	public static final Language DEFAULT_LANGUAGE = new Language("@en");
 	
 	/**
-	 * Language to choose
+	 * Name of the index searched by the questions which do not name one
 	 */
-	private Language lang = new Language("@en");
+	private final String index;
 	
 	/**
-	 * Map representing the correspondences between an element (whose ID or label has been typed in the question) and a set of elements related (according to question)
+	 * Answers of the questions asked recently
 	 */
-	private Map<Element, Set<Element>> map = new TreeMap<Element, Set<Element>>();
+	private final AnswerCache answers;
 	
 	/**
 	 * Map representing correspondences between a conventional term and a String value of a topic which implements a collection of predicate 
 	 */
-	private Map<String, String> starringColl = new TreeMap<String, String>();
+	private final Map<String, String> starringColl = new TreeMap<String, String>();
 	
 	/**
 	 * Map representing correspondences between a conventional term and a predicate/object
 	 */
-	private Map<String, String> predicates = new TreeMap<String, String>();
+	private final Map<String, String> predicates = new TreeMap<String, String>();
 	
 	/**
-	 * Constructor which add default predicate/object to predicates and starringColl map
+	 * Threads evaluating the candidate topics of an ambiguous ID/Label concurrently (shared by every machine, and bounded whatever
+	 * the number of questions and candidates: the candidates beyond the threads wait in the queue)
+	 */
+	private static final ExecutorService CANDIDATE_EXECUTOR = Executors.newFixedThreadPool(2 * Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "candidate-searcher");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	/**
+	 * Outcome of a query inserted in the map
+	 */
+	private enum Outcome {FOUND, NOT_FOUND, UNCORRECT_ELEMENTS}
+	
+	/**
+	 * Constructor which add default predicate/object to predicates and starringColl map (questions search the default index)
 	 */
 	public Machine()
 	{
+		this(Searcher.DEFAULT_INDEX);
+	}
+	
+	/**
+	 * Constructor which add default predicate/object to predicates and starringColl map
+	 * @param index Name of the index searched by the questions which do not name one
+	 */
+	public Machine(String index)
+	{
+		this(index, new AnswerCache());
+	}
+	
+	/**
+	 * Constructor which add default predicate/object to predicates and starringColl map, with its own cache of the answers
+	 * @param index Name of the index searched by the questions which do not name one
+	 * @param answers Cache of the answers (new AnswerCache(0, 0) for none)
+	 */
+	public Machine(String index, AnswerCache answers)
+	{
+		this.index = index;
+		this.answers = answers;
 		addPredicate("description", "common.topic.description");
 		addPredicate("genre", "film.film.genre");
 		addPredicate("directed", "film.film.directed_by");
@@ -73,85 +120,84 @@ public class Machine
 	}
 	
 	/**
-	 * Get index to be searched
-	 * @return
+	 * Copy constructor (used to add predicates without changing a machine which may be answering)
+	 * @param machine Machine to be copied
+	 */
+	private Machine(Machine machine)
+	{
+		index = machine.index;
+		answers = machine.answers.emptyCopy();
+		predicates.putAll(machine.predicates);
+		starringColl.putAll(machine.starringColl);
+	}
+	
+	/**
+	 * Get index searched by the questions which do not name one
+	 * @return Name of the index
 	 */
 	public String getSearchIndex()
 	{
-		return s.getIndex();
+		return index;
 	}
 	
 	/**
-	 * Change index to be searched
-	 * @param index Index to be searched
+	 * Get the cache of the answers (for its counters)
+	 * @return Cache of the answers
 	 */
-	public void changeSearchIndex(String index)
+	public AnswerCache getAnswerCache()
 	{
-		s.changeIndex(index);
+		return answers;
 	}
 	
 	/**
-	 * Add predicate/object to predicates map
+	 * Get a machine which knows a further predicate/object (this machine is not changed)
 	 * @param label String value of conventional term
 	 * @param value String value of predicate/term
+	 * @return Machine with the predicate/object
 	 */
-	public void addPredicate(String label, String value) {predicates.put(label, value);}
+	public Machine withPredicate(String label, String value)
+	{
+		Machine machine = new Machine(this);
+		machine.addPredicate(label, value);
+		return machine;
+	}
 	
 	/**
-	 * Add predicate/object to predicates and starringColl map
+	 * Get a machine which knows a further predicate/object and its collection of further predicates (this machine is not changed)
 	 * @param label String value of conventional term
 	 * @param value String value of predicate/term
 	 * @param starring collection of further predicates
+	 * @return Machine with the predicate/object
 	 */
-	public void addPredicate(String label, String value, String starring)
+	public Machine withPredicate(String label, String value, String starring)
 	{
-		addPredicate(label, value);
-		starringColl.put(label, starring);
+		Machine machine = new Machine(this);
+		machine.addPredicate(label, value, starring);
+		return machine;
 	}
 	
 	/**
-	 * Set the language of labels specified by the question
-	 * @param lang
+	 * Add predicate/object to predicates map (only while the machine is built)
+	 * @param label String value of conventional term
+	 * @param value String value of predicate/term
 	 */
-	public void setLanguage(Language lang) {this.lang = lang;}
+	private void addPredicate(String label, String value) {predicates.put(label, value);}
 	
 	/**
-	 * Define string message error analyzing the tokens
-	 * @param c Type of elements to be searched
-	 * @param list List of string value representing the tokens
-	 * @param last Integer value representing the min length allowed for the list
-	 * @param startIndex Integer value representing the index from which start to analyze ID/Label of desired element
-	 * @param endIndex Integer value representing the last index from which to stop the analysis of ID/Label of desired element
-	 * @param search Enum specifying whether to search subject (KEY) or object (VALUE) in the field
-	 * @throws NoSuchMethodException
-	 * @throws SecurityException
-	 * @throws InstantiationException
-	 * @throws IllegalAccessException
-	 * @throws IllegalArgumentException
-	 * @throws InvocationTargetException
-	 * @throws IOException
-	 * @throws NotFoundException
-	 * @throws UncorrectInputException
-	 * @throws UncorrectQuestionException
-	 * @throws UncorrectTypeException
-	 * @throws ParseException
-	 * @throws UncorrectIdException
+	 * Add predicate/object to predicates and starringColl map (only while the machine is built)
+	 * @param label String value of conventional term
+	 * @param value String value of predicate/term
+	 * @param starring collection of further predicates
 	 */
-	private void queryType(Class<?> c, List<String> list, int last, int startIndex, int endIndex, String search)
-			throws NoSuchMethodException, SecurityException, InstantiationException,
-			IllegalAccessException, IllegalArgumentException, InvocationTargetException,
-			IOException, NotFoundException, UncorrectInputException, UncorrectQuestionException,
-			UncorrectTypeException, ParseException, UncorrectIdException
+	private void addPredicate(String label, String value, String starring)
 	{
-		boolean isPerson = false;
-		String error = "";
-		if (search.equalsIgnoreCase("what")) error = "Only objects required!";
-		else if (search.equalsIgnoreCase("Who")) {error = "Only people required!"; isPerson = true;}
-		createAndInsertQuery(c, list, last, startIndex, endIndex, "type", isPerson, error);
+		addPredicate(label, value);
+		starringColl.put(label, starring);
 	}
 	
 	/**
 	 * Put in the map the association between a query and an element
+	 * @param r Context of the question
 	 * @param q Query object
 	 * @param key Element object
 	 * @throws NoSuchMethodException
@@ -161,62 +207,28 @@ public class Machine
 	 * @throws IllegalArgumentException
 	 * @throws InvocationTargetException
 	 * @throws IOException
-	 * @throws NotFoundException
 	 * @throws ParseException
 	 * @throws UncorrectIdException
 	 */
-	private void put(Element key, Set<Element> answer) throws NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException,
-	IOException, NotFoundException, ParseException, UncorrectIdException
+	private void put(Request r, Element key, Set<Element> answer) throws NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException,
+	IOException, ParseException, UncorrectIdException
 	{
 		Set<Element> values;
-		if (!map.containsKey(key)) values = answer;
+		if (!r.map.containsKey(key)) values = answer;
 		else
 		{
-			values = map.get(key);
+			values = r.map.get(key);
 		    values.addAll(answer);
 		}
-		map.put(key, values);
-	}
-	
-	/**
-	 * Analyze the list of tokens in order to get the string value of ID/Label of desired element (default end index is the last of the list)
-	 * @param list List of string values representing tokens
-	 * @param last Integer value representing the min length allowed for the list
-	 * @param index Integer value representing the starting index of the analysis
-	 * @return String value of ID/Label of desired element
-	 * @throws UncorrectQuestionException
-	 */
-	private String getLabel(List<String> list, int last, int index) throws UncorrectQuestionException
-	{
-		return getLabel(list, last, index, list.size());
-	}
-	
-	/**
-	 * Analyze the list of tokens in order to get the string value of ID/Label of desired element
-	 * @param list List of string values representing tokens
-	 * @param last Integer value representing the min length allowed for the list
-	 * @param index Integer value representing the starting index of the analysis
-	 * @param end Integer value representing the ending index of the analysis
-	 * @return String value of ID/Label of desired element
-	 * @throws UncorrectQuestionException
-	 */
-	private String getLabel(List<String> list, int last, int index, int end) throws UncorrectQuestionException
-	{
-		if (list.size() < last) throw new UncorrectQuestionException();
-		list = list.subList(index, end);
-		String word = "";
-		for (String s : list) word += s + " ";
-		return word.trim();
+		r.map.put(key, values);
 	}
 	
 	/**
 	 * Create and insert query
+	 * @param r Context of the question
 	 * @param dontCare If it does not matter whether the topic is a person or not
 	 * @param c Type of element to be searched
-	 * @param list List of string values representing the tokens
-	 * @param last Integer value representing the min length allowed for the list
-	 * @param startIndex Integer value representing the starting index of the analysis of ID/Label typed
-	 * @param endIndex Integer value representing the ending index of the analysis of ID/Label typed
+	 * @param label String value of ID/Label of desired element
 	 * @param field String value representing the field where to search
 	 * @throws NoSuchMethodException
 	 * @throws SecurityException
@@ -232,22 +244,20 @@ public class Machine
 	 * @throws ParseException
 	 * @throws UncorrectIdException
 	 */
-	private void createAndInsertQuery(boolean dontCare, Class<?> c, List<String> list, int last, int startIndex, int endIndex, String field)
+	private void createAndInsertQuery(Request r, boolean dontCare, Class<?> c, String label, String field)
 			throws NoSuchMethodException, SecurityException, InstantiationException,
 			IllegalAccessException, IllegalArgumentException, InvocationTargetException, IOException,
 			UncorrectQuestionException, NotFoundException, UncorrectInputException,
 			UncorrectTypeException, ParseException, UncorrectIdException
 	{
-		createAndInsertQuery(c, list, last, startIndex, endIndex, field, false, "Wrong input type", Searcheable.KEY, null, dontCare);
+		createAndInsertQuery(r, c, label, field, false, "Wrong input type", Searcheable.KEY, null, dontCare);
 	}
 	
 	/**
 	 * Create and insert query
+	 * @param r Context of the question
 	 * @param c Type of element to be searched
-	 * @param list List of string values representing the tokens
-	 * @param last Integer value representing the min length allowed for the list
-	 * @param startIndex Integer value representing the starting index of the analysis of ID/Label typed
-	 * @param endIndex Integer value representing the ending index of the analysis of ID/Label typed
+	 * @param label String value of ID/Label of desired element
 	 * @param field String value representing the field where to search
 	 * @param isPerson Boolean value which states whether the desired element must be a person or not
 	 * @throws NoSuchMethodException
@@ -264,22 +274,20 @@ public class Machine
 	 * @throws ParseException
 	 * @throws UncorrectIdException
 	 */
-	private void createAndInsertQuery(Class<?> c, List<String> list, int last, int startIndex, int endIndex, String field, boolean isPerson)
+	private void createAndInsertQuery(Request r, Class<?> c, String label, String field, boolean isPerson)
 			throws NoSuchMethodException, SecurityException, InstantiationException,
 			IllegalAccessException, IllegalArgumentException, InvocationTargetException, IOException,
 			UncorrectQuestionException, NotFoundException, UncorrectInputException,
 			UncorrectTypeException, ParseException, UncorrectIdException
 	{
-		createAndInsertQuery(c, list, last, startIndex, endIndex, field, isPerson, "Wrong input type");
+		createAndInsertQuery(r, c, label, field, isPerson, "Wrong input type");
 	}
 	
 	/**
 	 * Create and insert query
+	 * @param r Context of the question
 	 * @param c Type of element to be searched
-	 * @param list List of string values representing the tokens
-	 * @param last Integer value representing the min length allowed for the list
-	 * @param startIndex Integer value representing the starting index of the analysis of ID/Label typed
-	 * @param endIndex Integer value representing the ending index of the analysis of ID/Label typed
+	 * @param label String value of ID/Label of desired element
 	 * @param field String value representing the field where to search
 	 * @param isPerson Boolean value which states whether the desired element must be a person or not
 	 * @param error String value representing the specific error message
@@ -297,25 +305,26 @@ public class Machine
 	 * @throws ParseException
 	 * @throws UncorrectIdException
 	 */
-	private void createAndInsertQuery(Class<?> c, List<String> list, int last, int startIndex, int endIndex, String field, boolean isPerson, String error)
+	private void createAndInsertQuery(Request r, Class<?> c, String label, String field, boolean isPerson, String error)
 			throws NoSuchMethodException, SecurityException, InstantiationException,
 			IllegalAccessException, IllegalArgumentException, InvocationTargetException,
 			IOException, UncorrectQuestionException, NotFoundException,
 			UncorrectInputException, UncorrectTypeException, ParseException, UncorrectIdException
 	{
-		createAndInsertQuery(c, list, last, startIndex, endIndex, field, isPerson, error, Searcheable.KEY, null, false);
+		createAndInsertQuery(r, c, label, field, isPerson, error, Searcheable.KEY, null, false);
 	}
 	
 	/**
 	 * Create and insert query
+	 * @param r Context of the question
 	 * @param c Type of element to be searched
-	 * @param list List of string values representing the tokens
 	 * @param field String value representing the field where to search
 	 * @param isPerson Boolean value which states whether the desired element must be a person or not
 	 * @param error String value representing the specific error message
 	 * @param search Enum specifying whether to search subject (KEY) or object (VALUE) in the field
 	 * @param predicate Type object corresponding to that of question input
 	 * @param dontCare If it does not matter whether the topic is a person or not
+	 * @param limit Max number of elements to be searched for the predicate
 	 * @throws NoSuchMethodException
 	 * @throws SecurityException
 	 * @throws InstantiationException
@@ -330,22 +339,20 @@ public class Machine
 	 * @throws ParseException
 	 * @throws UncorrectIdException
 	 */
-	private void createAndInsertQuery(Class<?> c, List<String> list, String field, boolean isPerson, String error, Searcheable search, Type predicate, boolean dontCare)
+	private void createAndInsertQuery(Request r, Class<?> c, String field, boolean isPerson, String error, Searcheable search, Type predicate, boolean dontCare, int limit)
 			throws NoSuchMethodException, SecurityException, InstantiationException,
 			IllegalAccessException, IllegalArgumentException, InvocationTargetException,
 			IOException, UncorrectQuestionException, NotFoundException,
 			UncorrectInputException, UncorrectTypeException, ParseException, UncorrectIdException
 	{
-		createAndInsertQuery(c, list, 0, 0, 0, field, isPerson, error, search, predicate, dontCare);
+		createAndInsertQuery(r, null, c, null, field, isPerson, error, search, predicate, dontCare, limit);
 	}
 	
 	/**
 	 * Create and insert query
+	 * @param r Context of the question
 	 * @param c Type of element to be searched
-	 * @param list List of string values representing the tokens
-	 * @param last Integer value representing the min length allowed for the list
-	 * @param startIndex Integer value representing the starting index of the analysis of ID/Label typed
-	 * @param endIndex Integer value representing the ending index of the analysis of ID/Label typed
+	 * @param label String value of ID/Label of desired element
 	 * @param field String value representing the field where to search
 	 * @param isPerson Boolean value which states whether the desired element must be a person or not
 	 * @param error String value representing the specific error message
@@ -366,29 +373,28 @@ public class Machine
 	 * @throws ParseException
 	 * @throws UncorrectIdException
 	 */
-	private void createAndInsertQuery(Class<?> c, List<String> list, int last, int startIndex, int endIndex, String field, boolean isPerson, String error, Searcheable search, Type predicate, boolean dontCare)
+	private void createAndInsertQuery(Request r, Class<?> c, String label, String field, boolean isPerson, String error, Searcheable search, Type predicate, boolean dontCare)
 			throws NoSuchMethodException, SecurityException, InstantiationException,
 			IllegalAccessException, IllegalArgumentException, InvocationTargetException,
 			IOException, UncorrectQuestionException, NotFoundException,
 			UncorrectInputException, UncorrectTypeException, ParseException, UncorrectIdException
 	{
-		createAndInsertQuery(null, c, list, last, startIndex, endIndex, field, isPerson, error, search, predicate, dontCare);
+		createAndInsertQuery(r, null, c, label, field, isPerson, error, search, predicate, dontCare, Query.NO_LIMIT);
 	}
 	
 	/**
 	 * Create and insert query
+	 * @param r Context of the question
 	 * @param starringTopic Starring topic
 	 * @param c Type of element to be searched
-	 * @param list List of string values representing the tokens
-	 * @param last Integer value representing the min length allowed for the list
-	 * @param startIndex Integer value representing the starting index of the analysis of ID/Label typed
-	 * @param endIndex Integer value representing the ending index of the analysis of ID/Label typed
+	 * @param label String value of ID/Label of desired element
 	 * @param field String value representing the field where to search
 	 * @param isPerson Boolean value which states whether the desired element must be a person or not
 	 * @param error String value representing the specific error message
 	 * @param search Enum specifying whether to search subject (KEY) or object (VALUE) in the field
 	 * @param predicate Type object corresponding to that of question input
 	 * @param dontCare If it does not matter whether the topic is a person or not
+	 * @param limit Max number of elements to be searched for the predicate (Query.NO_LIMIT for every element)
 	 * @throws NoSuchMethodException
 	 * @throws SecurityException
 	 * @throws InstantiationException
@@ -403,46 +409,202 @@ public class Machine
 	 * @throws ParseException
 	 * @throws UncorrectIdException
 	 */
-	private void createAndInsertQuery(String starringTopic, Class<?> c, List<String> list, int last, int startIndex, int endIndex, String field, boolean isPerson, String error, Searcheable search, Type predicate, boolean dontCare)
+	private void createAndInsertQuery(Request r, String starringTopic, Class<?> c, String label, String field, boolean isPerson, String error, Searcheable search, Type predicate, boolean dontCare, int limit)
 			throws NoSuchMethodException, SecurityException, InstantiationException,
 			IllegalAccessException, IllegalArgumentException, InvocationTargetException,
 			IOException, UncorrectQuestionException, NotFoundException,
 			UncorrectInputException, UncorrectTypeException, ParseException, UncorrectIdException
+	{
+		check(insertQuery(r, starringTopic, c, label, field, isPerson, search, predicate, dontCare, limit), error);
+	}
+	
+	/**
+	 * Throw the exception corresponding to the outcome of a query, if it has no answer
+	 * @param outcome Outcome of the query
+	 * @param error String value representing the specific error message
+	 * @throws UncorrectInputException
+	 * @throws NotFoundException
+	 */
+	private static void check(Outcome outcome, String error) throws UncorrectInputException, NotFoundException
+	{
+		if (outcome == Outcome.UNCORRECT_ELEMENTS) throw new UncorrectInputException(error);
+		if (outcome == Outcome.NOT_FOUND) throw new NotFoundException();
+	}
+	
+	/**
+	 * Create and insert query, reporting a missing answer as an outcome instead of an exception
+	 * @param r Context of the question
+	 * @param starringTopic Starring topic
+	 * @param c Type of element to be searched
+	 * @param label String value of ID/Label of desired element
+	 * @param field String value representing the field where to search
+	 * @param isPerson Boolean value which states whether the desired element must be a person or not
+	 * @param search Enum specifying whether to search subject (KEY) or object (VALUE) in the field
+	 * @param predicate Type object corresponding to that of question input
+	 * @param dontCare If it does not matter whether the topic is a person or not
+	 * @param limit Max number of elements to be searched for the predicate (Query.NO_LIMIT for every element)
+	 * @return Outcome of the query
+	 * @throws NoSuchMethodException
+	 * @throws SecurityException
+	 * @throws InstantiationException
+	 * @throws IllegalAccessException
+	 * @throws IllegalArgumentException
+	 * @throws InvocationTargetException
+	 * @throws IOException
+	 * @throws UncorrectQuestionException
+	 * @throws UncorrectInputException
+	 * @throws ParseException
+	 * @throws UncorrectIdException
+	 */
+	private Outcome insertQuery(Request r, String starringTopic, Class<?> c, String label, String field, boolean isPerson, Searcheable search, Type predicate, boolean dontCare, int limit)
+			throws NoSuchMethodException, SecurityException, InstantiationException,
+			IllegalAccessException, IllegalArgumentException, InvocationTargetException,
+			IOException, UncorrectQuestionException, UncorrectInputException, ParseException, UncorrectIdException
 	{
 		boolean areUncorrectElements = false;
-		Set<Topic> topics;
-		if (starringTopic == null) topics = s.getTopics(getLabel(list, last, startIndex, endIndex), lang);
-		else {topics = new TreeSet<Topic>(); topics.add(s.getTopic(starringTopic));}
+		boolean areResults = false;
 		if (predicate == null)
 		{
-			for (Topic t : topics)
+			Set<Topic> topics;
+			if (starringTopic == null) topics = r.s.getTopics(label, r.lang);
+			else {topics = new HashSet<Topic>(); topics.add(r.s.getTopic(starringTopic));}
+			//The candidates are evaluated concurrently, while their values are put in the order of the candidates (whatever the order they end in)
+			List<Topic> candidates = new ArrayList<Topic>(new TreeSet<Topic>(topics));
+			List<Set<Element>> candidateValues = expand(r, candidates, c, field, isPerson, search, dontCare);
+			for (int i = 0; i < candidates.size(); i++)
 			{
-				Set<Element> values = new HashSet<Element>();
-				if (c.equals(Topic.class)) values = s.getQuery(new Query(Topic.class, field, t, search));
-				else if (c.equals(Type.class)) values = s.getQuery(new Query(Type.class, field, t, search));
-				if (t.isPerson() != isPerson && dontCare == false) {areUncorrectElements = true; continue;}
-				put(t, values);
+				Set<Element> values = candidateValues.get(i);
+				if (values == null) {areUncorrectElements = true; continue;}
+				if (values.isEmpty()) continue;
+				put(r, candidates.get(i), values);
+				areResults = true;
 			}
 		}
 		else
 		{
-			Set<Element> values = s.getQuery(new Query(Topic.class, field, predicate, search));
-			put(predicate, values);
+			Set<Element> values = r.s.findQuery(new Query(Topic.class, field, predicate, search, limit));
+			if (!values.isEmpty()) {put(r, predicate, values); areResults = true;}
 		}
-		if (map.keySet().size() == 0 && areUncorrectElements == true)
-			throw new UncorrectInputException(error);
-		else if (map.keySet().size() == 0 && areUncorrectElements == false)
-			throw new NotFoundException();
+		if (areResults) return Outcome.FOUND;
+		return areUncorrectElements ? Outcome.UNCORRECT_ELEMENTS : Outcome.NOT_FOUND;
+	}
+	
+	/**
+	 * Evaluate the candidate topics of an ID/Label: the lookups of each candidate are submitted to the candidate executor, except those
+	 * of the first candidate which are run by the calling thread, so the time taken depends on the slowest candidate rather than on their number
+	 * @param r Context of the question
+	 * @param candidates Candidate topics
+	 * @param c Type of element to be searched
+	 * @param field String value representing the field where to search
+	 * @param isPerson Boolean value which states whether the desired element must be a person or not
+	 * @param search Enum specifying whether to search subject (KEY) or object (VALUE) in the field
+	 * @param dontCare If it does not matter whether the topic is a person or not
+	 * @return Values of each candidate, in the order of the candidates (null for a candidate which is not of the kind required)
+	 * @throws NoSuchMethodException
+	 * @throws SecurityException
+	 * @throws InstantiationException
+	 * @throws IllegalAccessException
+	 * @throws IllegalArgumentException
+	 * @throws InvocationTargetException
+	 * @throws IOException
+	 * @throws UncorrectInputException
+	 * @throws ParseException
+	 * @throws UncorrectIdException
+	 */
+	private List<Set<Element>> expand(final Request r, List<Topic> candidates, final Class<?> c, final String field, final boolean isPerson,
+			final Searcheable search, final boolean dontCare) throws NoSuchMethodException, SecurityException, InstantiationException,
+			IllegalAccessException, IllegalArgumentException, InvocationTargetException,
+			IOException, UncorrectInputException, ParseException, UncorrectIdException
+	{
+		List<Set<Element>> values = new ArrayList<Set<Element>>(candidates.size());
+		if (candidates.size() < 2)
+		{
+			for (Topic t : candidates) values.add(evaluate(r, t, c, field, isPerson, search, dontCare));
+			return values;
+		}
+		List<Future<Set<Element>>> futures = new ArrayList<Future<Set<Element>>>();
+		boolean done = false;
+		try
+		{
+			for (final Topic t : candidates.subList(1, candidates.size()))
+			{
+				futures.add(CANDIDATE_EXECUTOR.submit(new Callable<Set<Element>>()
+				{
+					@Override
+					public Set<Element> call() throws Exception {return evaluate(r, t, c, field, isPerson, search, dontCare);}
+				}));
+			}
+			values.add(evaluate(r, candidates.get(0), c, field, isPerson, search, dontCare));
+			for (Future<Set<Element>> future : futures) values.add(future.get());
+			done = true;
+			return values;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Search interrupted", e);
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof NoSuchMethodException) throw (NoSuchMethodException) cause;
+			if (cause instanceof InstantiationException) throw (InstantiationException) cause;
+			if (cause instanceof IllegalAccessException) throw (IllegalAccessException) cause;
+			if (cause instanceof InvocationTargetException) throw (InvocationTargetException) cause;
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof UncorrectInputException) throw (UncorrectInputException) cause;
+			if (cause instanceof ParseException) throw (ParseException) cause;
+			if (cause instanceof UncorrectIdException) throw (UncorrectIdException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new IOException(cause);
+		}
+		finally
+		{
+			//The candidates not evaluated yet are dropped (those being evaluated are left to end)
+			if (!done) for (Future<Set<Element>> future : futures) future.cancel(false);
+		}
+	}
+	
+	/**
+	 * Evaluate a candidate topic of an ID/Label
+	 * @param r Context of the question
+	 * @param t Candidate topic
+	 * @param c Type of element to be searched
+	 * @param field String value representing the field where to search
+	 * @param isPerson Boolean value which states whether the desired element must be a person or not
+	 * @param search Enum specifying whether to search subject (KEY) or object (VALUE) in the field
+	 * @param dontCare If it does not matter whether the topic is a person or not
+	 * @return Values of the topic (null if the topic is not of the kind required)
+	 * @throws NoSuchMethodException
+	 * @throws SecurityException
+	 * @throws InstantiationException
+	 * @throws IllegalAccessException
+	 * @throws IllegalArgumentException
+	 * @throws InvocationTargetException
+	 * @throws IOException
+	 * @throws UncorrectInputException
+	 * @throws ParseException
+	 * @throws UncorrectIdException
+	 */
+	private static Set<Element> evaluate(Request r, Topic t, Class<?> c, String field, boolean isPerson, Searcheable search, boolean dontCare)
+			throws NoSuchMethodException, SecurityException, InstantiationException,
+			IllegalAccessException, IllegalArgumentException, InvocationTargetException,
+			IOException, UncorrectInputException, ParseException, UncorrectIdException
+	{
+		//The kind of the topic is checked first, since it does not search the index
+		if (dontCare == false && t.isPerson() != isPerson) return null;
+		if (c.equals(Topic.class)) return r.s.findQuery(new Query(Topic.class, field, t, search));
+		if (c.equals(Type.class)) return r.s.findQuery(new Query(Type.class, field, t, search));
+		return new HashSet<Element>();
 	}
 	
 	/**
 	 * If the question does not have answer, reformulate it in order to consider a collection of predicates
+	 * @param r Context of the question
 	 * @param dontCare If it does not matter whether the topic is a person or not
 	 * @param c Type of element to be searched
-	 * @param list List of string values representing the tokens
-	 * @param last Integer value representing the min length allowed for the list
-	 * @param startIndex Integer value representing the starting index of the analysis of ID/Label typed
-	 * @param endIndex Integer value representing the ending index of the analysis of ID/Label typed
+	 * @param label String value of ID/Label of desired element
 	 * @param field String value representing the field where to search
 	 * @throws NoSuchMethodException
 	 * @throws SecurityException
@@ -458,39 +620,37 @@ public class Machine
 	 * @throws UncorrectIdException
 	 * @throws NotFoundException
 	 */
-	private void askForStarring(boolean dontCare, Class<Topic> c,
-			List<String> list, int last, int startIndex, int endIndex, String field) throws NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException,
+	private void askForStarring(Request r, boolean dontCare, Class<Topic> c,
+			String label, String field) throws NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException,
 			IllegalArgumentException, InvocationTargetException, IOException, UncorrectQuestionException,
 			UncorrectInputException, UncorrectTypeException, ParseException, UncorrectIdException, NotFoundException
 	{
-		try {createAndInsertQuery(dontCare, c, list, last, startIndex, endIndex, predicates.get(field));}
-		catch (NotFoundException e)
+		//The fallback is driven by outcomes: a miss does not create (and unwind) any exception
+		Outcome outcome = insertQuery(r, null, c, label, predicates.get(field), false, Searcheable.KEY, null, dontCare, Query.NO_LIMIT);
+		if (outcome != Outcome.NOT_FOUND) {check(outcome, "Wrong input type"); return;}
+		if (!starringColl.containsKey(field)) throw new NotFoundException();
+		Set<Topic> mainTopics = r.s.getTopics(label, r.lang);
+		boolean areResults = false;
+		for (Topic t : mainTopics)
 		{
-			if (!starringColl.containsKey(field)) throw new NotFoundException();
-			Set<Topic> mainTopics = s.getTopics(getLabel(list, last, startIndex, endIndex), lang);
-			boolean areAnyStarring = false;
-			boolean areResults = false;
-			for (Topic t : mainTopics)
+			//The topic, its collections and their values are joined by the searcher, with one lookup per hop instead of one per collection
+			for (Map.Entry<String, Set<String>> myColl : r.s.getPath(t, starringColl.get(field), predicates.get(field)).entrySet())
 			{
-				Set<Element> collections;
-				try {collections = s.getQuery(new Query(Topic.class, starringColl.get(field), t, Searcheable.KEY)); if (!areAnyStarring) areAnyStarring = true;}
-				catch(Exception e2) {continue;}
-				for (Element myColl : collections)
-				{
-					try {createAndInsertQuery(myColl.getId(), c, list, last, startIndex, endIndex, predicates.get(field), false, "Wrong input type", Searcheable.KEY, null, true); if (!areResults) areResults = true;}
-					catch (Exception e3) {}
-				}
+				Set<Element> values = new HashSet<Element>();
+				for (String value : myColl.getValue()) values.add(r.s.getTopic(value));
+				put(r, r.s.getTopic(myColl.getKey()), values);
+				areResults = true;
 			}
-			if (!areAnyStarring || !areResults) throw new NotFoundException();
 		}
+		if (!areResults) throw new NotFoundException();
 	}
 	
 	/**
 	 * Set the number of hits to a specific integer value
+	 * @param r Context of the question
 	 * @param dontCare If it does not matter whether the topic is a person or not
 	 * @param count Integer value representing the max number of hits allowed
 	 * @param c Type of element to be searched
-	 * @param list List of string values representing the tokens
 	 * @param field String value representing the field where to search
 	 * @param isPerson Boolean value which states whether the desired element must be a person or not
 	 * @param error String value representing the specific error message
@@ -511,27 +671,19 @@ public class Machine
 	 * @throws UncorrectIdException
 	 * @throws GrammaticalException
 	 */
-	private void quantityChoice(boolean dontCare, int count, Class<?> c, List<String> list, String field, boolean isPerson, String error, Searcheable search, String predicate) throws NoSuchMethodException, SecurityException,
+	private void quantityChoice(Request r, boolean dontCare, int count, Class<?> c, String field, boolean isPerson, String error, Searcheable search, String predicate) throws NoSuchMethodException, SecurityException,
 	InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, IOException, UncorrectQuestionException,
 	NotFoundException, UncorrectInputException, UncorrectTypeException, ParseException, UncorrectIdException, GrammaticalException
 	{
 		if (predicate.endsWith("y") && count > 1) throw new GrammaticalException("Type plural form!");
 		else if (predicate.endsWith("s") && count == 1) throw new GrammaticalException("Type singular form!");
-		Type key = new Type(predicates.get(predicate));
-		createAndInsertQuery(c, list, field, isPerson, error, search, key, dontCare);
-		Set<Element> set = map.get(key);
-		Set<Element> set2 = new HashSet<Element>();
-		int k = 0;
-		for (Element e : set)
-		{
-			if (k == count) break;
-			set2.add(e); k++;
-		}
-		map.put(key, set2);
+		Type key = r.s.getType(predicates.get(predicate));
+		//The searcher stops as soon as it has found enough elements, instead of returning every element of the type
+		createAndInsertQuery(r, c, field, isPerson, error, search, key, dontCare, count < 0 ? Query.NO_LIMIT : count);
 	}
 	
 	/**
-	 * Get the answer returned by query() method
+	 * Get the answer returned by query() method (the default index is searched)
 	 * @param list List of string values representing the tokens
 	 * @throws NoSuchMethodException
 	 * @throws SecurityException
@@ -553,21 +705,92 @@ public class Machine
 	IllegalArgumentException, InvocationTargetException, IOException, NotFoundException, UncorrectInputException,
 	UncorrectQuestionException, UncorrectTypeException, ParseException, UncorrectFormatLanguage, UncorrectIdException, GrammaticalException
 	{
-		Map<Element, Set<Element>> map2 = query(list);
+		return getAnswer(list, index);
+	}
+	
+	/**
+	 * Get the answer returned by query() method
+	 * @param list List of string values representing the tokens
+	 * @param index Name of the index to be searched (registered with Searcher.register)
+	 * @throws NoSuchMethodException
+	 * @throws SecurityException
+	 * @throws InstantiationException
+	 * @throws IllegalAccessException
+	 * @throws IllegalArgumentException
+	 * @throws InvocationTargetException
+	 * @throws IOException
+	 * @throws NotFoundException
+	 * @throws UncorrectInputException
+	 * @throws UncorrectQuestionException
+	 * @throws UncorrectTypeException
+	 * @throws ParseException
+	 * @throws UncorrectFormatLanguage
+	 * @throws UncorrectIdException
+	 * @throws GrammaticalException
+	 */
+	public String getAnswer(String list, String index) throws NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException,
+	IllegalArgumentException, InvocationTargetException, IOException, NotFoundException, UncorrectInputException,
+	UncorrectQuestionException, UncorrectTypeException, ParseException, UncorrectFormatLanguage, UncorrectIdException, GrammaticalException
+	{
+		return getAnswer(list, index, DEFAULT_LANGUAGE);
+	}
+	
+	/**
+	 * Get the answer returned by query() method (a question asked again is answered by the cache, until the index is reopened)
+	 * @param list List of string values representing the tokens
+	 * @param index Name of the index to be searched (registered with Searcher.register)
+	 * @param lang Language of the labels of the answer
+	 * @throws NoSuchMethodException
+	 * @throws SecurityException
+	 * @throws InstantiationException
+	 * @throws IllegalAccessException
+	 * @throws IllegalArgumentException
+	 * @throws InvocationTargetException
+	 * @throws IOException
+	 * @throws NotFoundException
+	 * @throws UncorrectInputException
+	 * @throws UncorrectQuestionException
+	 * @throws UncorrectTypeException
+	 * @throws ParseException
+	 * @throws UncorrectFormatLanguage
+	 * @throws UncorrectIdException
+	 * @throws GrammaticalException
+	 */
+	public String getAnswer(String list, String index, Language lang) throws NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException,
+	IllegalArgumentException, InvocationTargetException, IOException, NotFoundException, UncorrectInputException,
+	UncorrectQuestionException, UncorrectTypeException, ParseException, UncorrectFormatLanguage, UncorrectIdException, GrammaticalException
+	{
+		Searcher s = Searcher.getInstance(index);
+		String question = QuestionPlan.normalize(list);
+		
+		//The generation is read before answering: an answer read while the index is being reopened is cached as stale
+		long generation = s.getGeneration();
+		String answer = answers.get(question, index, lang.getLang(), generation);
+		if (answer != null) return answer;
+		
+		Request r = new Request(s, lang);
+		Map<Element, Set<Element>> map2 = query(r, question);
+		
+		//Labels of every element of the answer, resolved together
+		List<Element> elements = new ArrayList<Element>();
+		for (Set<Element> values : map2.values()) elements.addAll(values);
+		Map<String, Set<String>> elementLabels = r.s.getLabels(elements, r.lang);
 		
 		String labels = "";
 		
-		for (Element key : map2.keySet())
+		//The answer is collected unordered: it is sorted only here, once
+		for (Element key : new TreeSet<Element>(map2.keySet()))
 		{
 			String keyLabels = "";
 			
-			for (Element e : map2.get(key))
-				for (String label : e.getLabels(lang)) keyLabels += label + ", ";
+			for (Element e : new TreeSet<Element>(map2.get(key)))
+				for (String label : new TreeSet<String>(elementLabels.get(e.getId()))) keyLabels += label + ", ";
 			if (keyLabels.length() > 0) keyLabels = keyLabels.substring(0, keyLabels.length() -2).trim();
 			
 			labels += key + ": " + keyLabels + "\n";
 		}
 		
+		answers.put(question, index, lang.getLang(), generation, labels);
 		return labels;
 	}
 	
@@ -598,7 +821,7 @@ public class Machine
 	}
 	
 	/**
-	 * Analyze a question and return a map whose couples of Element key-value represent the results
+	 * Analyze a question and return a map whose couples of Element key-value represent the results (the default index is searched)
 	 * @param question String value of the question to process
 	 * @return map whose couples of Element key-value represent the results
 	 * @throws NoSuchMethodException
@@ -622,24 +845,78 @@ public class Machine
 			UncorrectInputException, UncorrectQuestionException, UncorrectTypeException,
 			ParseException, UncorrectIdException, GrammaticalException
 	{
-		question = question.replace('?', ' ').trim();
-		List<String> list1 = Arrays.asList(question.split(" "));
-		List<String> list = new ArrayList<String>();
-		for (String s : list1) if (!s.equals("")) list.add(s);
-		if (list.get(0).equalsIgnoreCase("What") || list.get(1).equalsIgnoreCase("is"))
-            queryType(Type.class, list, 3, 2, list.size(), list.get(0));
-		else if (list.get(0).equalsIgnoreCase("Where")) createAndInsertQuery(Topic.class, list, 4, 2, list.size() -1, "people.person.place_of_birth", true);
-		else if (list.get(1).equalsIgnoreCase("has")) createAndInsertQuery(Topic.class, list, 4, 3, list.size(), predicates.get(list.get(2)), false);
-		else if (list.get(0).equalsIgnoreCase("Tell"))
+		return query(question, index);
+	}
+	
+	/**
+	 * Analyze a question and return a map whose couples of Element key-value represent the results
+	 * @param question String value of the question to process
+	 * @param index Name of the index to be searched (registered with Searcher.register)
+	 * @return map whose couples of Element key-value represent the results
+	 * @throws NoSuchMethodException
+	 * @throws SecurityException
+	 * @throws InstantiationException
+	 * @throws IllegalAccessException
+	 * @throws IllegalArgumentException
+	 * @throws InvocationTargetException
+	 * @throws IOException
+	 * @throws NotFoundException
+	 * @throws UncorrectInputException
+	 * @throws UncorrectQuestionException
+	 * @throws UncorrectTypeException
+	 * @throws ParseException
+	 * @throws UncorrectIdException
+	 * @throws GrammaticalException
+	 */
+	public Map<Element, Set<Element>> query(String question, String index)
+			throws NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException,
+			IllegalArgumentException, InvocationTargetException, IOException, NotFoundException,
+			UncorrectInputException, UncorrectQuestionException, UncorrectTypeException,
+			ParseException, UncorrectIdException, GrammaticalException
+	{
+		return query(new Request(Searcher.getInstance(index), DEFAULT_LANGUAGE), question);
+	}
+	
+	/**
+	 * Analyze a question within its context and return a map whose couples of Element key-value represent the results
+	 * @param r Context of the question
+	 * @param question String value of the question to process
+	 * @return map whose couples of Element key-value represent the results
+	 * @throws NoSuchMethodException
+	 * @throws SecurityException
+	 * @throws InstantiationException
+	 * @throws IllegalAccessException
+	 * @throws IllegalArgumentException
+	 * @throws InvocationTargetException
+	 * @throws IOException
+	 * @throws NotFoundException
+	 * @throws UncorrectInputException
+	 * @throws UncorrectQuestionException
+	 * @throws UncorrectTypeException
+	 * @throws ParseException
+	 * @throws UncorrectIdException
+	 * @throws GrammaticalException
+	 */
+	private Map<Element, Set<Element>> query(Request r, String question)
+			throws NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException,
+			IllegalArgumentException, InvocationTargetException, IOException, NotFoundException,
+			UncorrectInputException, UncorrectQuestionException, UncorrectTypeException,
+			ParseException, UncorrectIdException, GrammaticalException
+	{
+		//The question is split and its shape found in one pass: the plan of the shape tells the form and where its parts are
+		List<String> shape = new ArrayList<String>();
+		List<String> list = QuestionPlan.tokenize(question, shape);
+		QuestionPlan plan = QuestionPlan.of(shape);
+		switch (plan.form)
 		{
-			if (list.get(2).equalsIgnoreCase("the") && list.contains("of") && list.indexOf("of") < list.size() -1)
-			  askForStarring(true, Topic.class, list, 6, list.indexOf("of") +1, list.size(), getLabel(list, 6, 3, list.indexOf("of")));
-			else quantityChoice(true, Integer.parseInt(list.get(2)), Topic.class, list, "type", false, "Wrong input", Searcheable.VALUE, list.get(3));
+			case TYPE: createAndInsertQuery(r, Type.class, plan.getLabel(list), "type", plan.isPerson, plan.error); break;
+			case BIRTH_PLACE: createAndInsertQuery(r, Topic.class, plan.getLabel(list), "people.person.place_of_birth", true); break;
+			case PROPERTY: createAndInsertQuery(r, Topic.class, plan.getLabel(list), predicates.get(plan.getField(list)), false); break;
+			case STARRING: askForStarring(r, true, Topic.class, plan.getLabel(list), plan.getField(list)); break;
+			case QUANTITY: quantityChoice(r, true, Integer.parseInt(list.get(2)), Topic.class, "type", false, "Wrong input", Searcheable.VALUE, plan.getField(list)); break;
+			default: break;
 		}
-		Map<Element, Set<Element>> map2 = new TreeMap<Element, Set<Element>>();
-		map2.putAll(map);
-		map.clear();;
-		return map2;
+		return r.map;
 	}
 
 	/**
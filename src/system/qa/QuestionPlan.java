@@ -0,0 +1,270 @@
+package system.qa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Plan of a question: the form of the question and the positions of its parts (the label of the element asked about, the words
+ * naming the field, the number of elements required), found once for every question with the same shape.
+ * The shape of a question keeps its length and the keywords of the forms in their positions, while every other word is a
+ * placeholder: the plan depends only on the shape, so it can be shared by all the questions having it.
+ * A plan never changes, so it can be used by many questions at the same time.
+ * @author Francesco Raco
+ *
+ */
+final class QuestionPlan
+{
+	/**
+	 * Forms of the questions
+	 */
+	enum Form
+	{
+		/**
+		 * What/Who is X
+		 */
+		TYPE,
+
+		/**
+		 * Where was X born
+		 */
+		BIRTH_PLACE,
+
+		/**
+		 * X has field Y
+		 */
+		PROPERTY,
+
+		/**
+		 * Tell me the field of X
+		 */
+		STARRING,
+
+		/**
+		 * Tell me N type
+		 */
+		QUANTITY,
+
+		/**
+		 * None of the forms (the question has no answer)
+		 */
+		NONE
+	}
+
+	/**
+	 * Keywords of the forms (compared ignoring case)
+	 */
+	private static final String[] KEYWORDS = {"what", "who", "is", "where", "has", "tell", "the"};
+
+	/**
+	 * Keyword separating the field from the element in the STARRING form (compared considering case)
+	 */
+	private static final String OF = "of";
+
+	/**
+	 * Placeholder of the words which are not keywords in the shape of a question
+	 */
+	private static final String WORD = "*";
+
+	/**
+	 * Max number of plans kept (the shapes are few, since the words which are not keywords do not count)
+	 */
+	static final int CACHE_CAPACITY = 4096;
+
+	/**
+	 * Plans compiled, by shape of the questions
+	 */
+	private static final Map<List<String>, QuestionPlan> plans = new ConcurrentHashMap<List<String>, QuestionPlan>();
+
+	/**
+	 * Form of the question
+	 */
+	final Form form;
+
+	/**
+	 * Min number of tokens of the question
+	 */
+	final int last;
+
+	/**
+	 * First token (included) and last token (excluded) of the ID/Label of the element asked about
+	 */
+	final int labelStart, labelEnd;
+
+	/**
+	 * First token (included) and last token (excluded) of the field (PROPERTY and STARRING forms) or of the type (QUANTITY form)
+	 */
+	final int fieldStart, fieldEnd;
+
+	/**
+	 * Whether the element must be a person or not (TYPE form only)
+	 */
+	final boolean isPerson;
+
+	/**
+	 * Error message when the elements found are not of the kind required (TYPE form only)
+	 */
+	final String error;
+
+	/**
+	 * Private constructor
+	 * @param form Form of the question
+	 * @param last Min number of tokens of the question
+	 * @param labelStart First token (included) of the ID/Label
+	 * @param labelEnd Last token (excluded) of the ID/Label
+	 * @param fieldStart First token (included) of the field
+	 * @param fieldEnd Last token (excluded) of the field
+	 * @param isPerson Whether the element must be a person or not
+	 * @param error Error message when the elements found are not of the kind required
+	 */
+	private QuestionPlan(Form form, int last, int labelStart, int labelEnd, int fieldStart, int fieldEnd, boolean isPerson, String error)
+	{
+		this.form = form;
+		this.last = last;
+		this.labelStart = labelStart;
+		this.labelEnd = labelEnd;
+		this.fieldStart = fieldStart;
+		this.fieldEnd = fieldEnd;
+		this.isPerson = isPerson;
+		this.error = error;
+	}
+
+	/**
+	 * Split a question into its tokens (separated by spaces and question marks) and get its shape, in a single pass
+	 * @param question String value of the question
+	 * @param shape List where the shape of the question is added (keywords in lower case, the other words replaced by a placeholder)
+	 * @return List of string values representing the tokens
+	 */
+	static List<String> tokenize(String question, List<String> shape)
+	{
+		question = question.replace('?', ' ').trim();
+		List<String> tokens = new ArrayList<String>();
+		int start = 0;
+		for (int i = 0; i <= question.length(); i++)
+		{
+			if (i < question.length() && question.charAt(i) != ' ') continue;
+			if (i > start)
+			{
+				String token = question.substring(start, i);
+				tokens.add(token);
+				shape.add(keyword(token));
+			}
+			start = i + 1;
+		}
+		return tokens;
+	}
+
+	/**
+	 * Normalize a question, keeping its tokens separated by a single space (questions differing only by spaces and question marks
+	 * have the same normalized form, and the same plan)
+	 * @param question String value of the question
+	 * @return String value of the normalized question
+	 */
+	static String normalize(String question)
+	{
+		StringBuilder normalized = new StringBuilder(question.length());
+		for (String token : tokenize(question, new ArrayList<String>()))
+		{
+			if (normalized.length() > 0) normalized.append(' ');
+			normalized.append(token);
+		}
+		return normalized.toString();
+	}
+
+	/**
+	 * Get the plan of the questions with a shape, compiling it only the first time the shape is seen
+	 * @param shape Shape of the questions
+	 * @return Plan of the questions
+	 * @throws IndexOutOfBoundsException if the question is too short to be told apart (an empty question among them)
+	 */
+	static QuestionPlan of(List<String> shape)
+	{
+		QuestionPlan plan = plans.get(shape);
+		if (plan != null) return plan;
+		plan = compile(shape);
+		if (plans.size() < CACHE_CAPACITY) plans.put(shape, plan);
+		return plan;
+	}
+
+	/**
+	 * Get the keyword corresponding to a token
+	 * @param token String value of the token
+	 * @return Keyword in lower case (placeholder if the token is not a keyword)
+	 */
+	private static String keyword(String token)
+	{
+		if (token.equals(OF)) return OF;
+		for (String keyword : KEYWORDS) if (token.equalsIgnoreCase(keyword)) return keyword;
+		return WORD;
+	}
+
+	/**
+	 * Compile the plan of the questions with a shape, checking the forms in order
+	 * @param shape Shape of the questions
+	 * @return Plan of the questions
+	 * @throws IndexOutOfBoundsException if the question is too short to be told apart (an empty question among them)
+	 */
+	private static QuestionPlan compile(List<String> shape)
+	{
+		int size = shape.size();
+		String first = shape.get(0);
+		if (first.equals("what") || shape.get(1).equals("is"))
+		{
+			boolean isPerson = first.equals("who");
+			String error = first.equals("what") ? "Only objects required!" : isPerson ? "Only people required!" : "";
+			return new QuestionPlan(Form.TYPE, 3, 2, size, 0, 0, isPerson, error);
+		}
+		if (first.equals("where")) return new QuestionPlan(Form.BIRTH_PLACE, 4, 2, size - 1, 0, 0, true, null);
+		if (shape.get(1).equals("has")) return new QuestionPlan(Form.PROPERTY, 4, 3, size, 2, 3, false, null);
+		if (first.equals("tell"))
+		{
+			int of = shape.indexOf(OF);
+			if (shape.get(2).equals("the") && of >= 0 && of < size - 1) return new QuestionPlan(Form.STARRING, 6, of + 1, size, 3, of, false, null);
+			return new QuestionPlan(Form.QUANTITY, 0, 0, 0, 3, 4, false, null);
+		}
+		return new QuestionPlan(Form.NONE, 0, 0, 0, 0, 0, false, null);
+	}
+
+	/**
+	 * Get the ID/Label of the element asked about
+	 * @param tokens List of string values representing the tokens
+	 * @return String value of ID/Label
+	 * @throws UncorrectQuestionException if the question is shorter than its form requires
+	 */
+	String getLabel(List<String> tokens) throws UncorrectQuestionException
+	{
+		return join(tokens, labelStart, labelEnd);
+	}
+
+	/**
+	 * Get the words naming the field
+	 * @param tokens List of string values representing the tokens
+	 * @return String value of the field
+	 * @throws UncorrectQuestionException if the question is shorter than its form requires
+	 */
+	String getField(List<String> tokens) throws UncorrectQuestionException
+	{
+		return join(tokens, fieldStart, fieldEnd);
+	}
+
+	/**
+	 * Join a range of tokens
+	 * @param tokens List of string values representing the tokens
+	 * @param start First token (included)
+	 * @param end Last token (excluded)
+	 * @return String value of the tokens separated by spaces
+	 * @throws UncorrectQuestionException if the question is shorter than its form requires
+	 */
+	private String join(List<String> tokens, int start, int end) throws UncorrectQuestionException
+	{
+		if (tokens.size() < last) throw new UncorrectQuestionException();
+		StringBuilder word = new StringBuilder();
+		for (int i = start; i < end; i++)
+		{
+			if (i > start) word.append(' ');
+			word.append(tokens.get(i));
+		}
+		return word.toString().trim();
+	}
+}
@@ -0,0 +1,43 @@
+package system.qa;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import system.Element;
+import system.Language;
+import system.search.Searcher;
+
+/**
+ * Context of a question answered by a Machine: everything that changes from a question to another
+ * lives here, so that a single machine can answer many questions at the same time
+ * @author Francesco Raco
+ *
+ */
+class Request
+{
+	/**
+	 * Searcher of the index the question is asked to
+	 */
+	final Searcher s;
+
+	/**
+	 * Language of the labels of the answer
+	 */
+	final Language lang;
+
+	/**
+	 * Map representing the correspondences between an element (whose ID or label has been typed in the question) and a set of elements related (according to question)
+	 */
+	final Map<Element, Set<Element>> map = new HashMap<Element, Set<Element>>();
+
+	/**
+	 * Constructor
+	 * @param s Searcher of the index the question is asked to
+	 * @param lang Language of the labels of the answer
+	 */
+	Request(Searcher s, Language lang)
+	{
+		this.s = s;
+		this.lang = lang;
+	}
+}
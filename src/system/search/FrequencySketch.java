@@ -0,0 +1,111 @@
+package system.search;
+
+import java.util.Arrays;
+
+/**
+ * Count-min sketch of the recent frequencies of the keys of a cache: four rows of small counters (at most 15),
+ * all halved once the number of increments reaches ten times the width, so that old popularity fades away
+ * @author Francesco Raco
+ *
+ */
+class FrequencySketch
+{
+	/**
+	 * Seeds of the hash functions of the rows
+	 */
+	private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+	/**
+	 * Max value of a counter
+	 */
+	private static final int MAX_COUNT = 15;
+
+	/**
+	 * Counters of the rows, one row after another
+	 */
+	private final byte[] counters;
+
+	/**
+	 * Width of a row (power of 2)
+	 */
+	private final int width;
+
+	/**
+	 * Number of increments after which the counters are halved
+	 */
+	private final int sampleSize;
+
+	/**
+	 * Number of increments since the last halving
+	 */
+	private int increments;
+
+	/**
+	 * Constructor
+	 * @param expectedKeys Expected number of keys
+	 */
+	FrequencySketch(int expectedKeys)
+	{
+		width = Integer.highestOneBit(Math.max(16, expectedKeys - 1) << 1);
+		counters = new byte[SEEDS.length * width];
+		sampleSize = 10 * width;
+	}
+
+	/**
+	 * Get the position of the counter of a key in a row
+	 * @param hash Hash code of the key
+	 * @param row Row of the counter
+	 * @return Position of the counter
+	 */
+	private int indexOf(int hash, int row)
+	{
+		int h = hash * SEEDS[row];
+		h ^= h >>> 16;
+		return row * width + (h & (width - 1));
+	}
+
+	/**
+	 * Increment the frequency of a key
+	 * @param hash Hash code of the key
+	 */
+	void increment(int hash)
+	{
+		boolean incremented = false;
+		for (int row = 0; row < SEEDS.length; row++)
+		{
+			int i = indexOf(hash, row);
+			if (counters[i] < MAX_COUNT) {counters[i]++; incremented = true;}
+		}
+		if (incremented && ++increments >= sampleSize) halve();
+	}
+
+	/**
+	 * Get the estimated frequency of a key
+	 * @param hash Hash code of the key
+	 * @return Estimated frequency (the min of its counters)
+	 */
+	int frequency(int hash)
+	{
+		int frequency = MAX_COUNT;
+		for (int row = 0; row < SEEDS.length; row++) frequency = Math.min(frequency, counters[indexOf(hash, row)]);
+		return frequency;
+	}
+
+	/**
+	 * Halve every counter
+	 */
+	private void halve()
+	{
+		for (int i = 0; i < counters.length; i++) counters[i] >>= 1;
+		increments /= 2;
+	}
+
+	/**
+	 * Reset every counter
+	 */
+	void clear()
+	{
+		Arrays.fill(counters, (byte) 0);
+		increments = 0;
+	}
+}
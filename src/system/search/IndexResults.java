@@ -0,0 +1,222 @@
+package system.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import system.Searcheable;
+import system.index.Dictionary;
+import system.index.LongHashSet;
+
+/**
+ * Results of a search on a Lucene index directory: the postings of the term searched are walked segment by segment while the
+ * results are read, so a document is found only when it is needed and the memory used does not depend on the size of the index.
+ * Only the stored fields required are loaded, and the searcher is released when the results are closed
+ * @author Francesco Raco
+ *
+ */
+class IndexResults extends Results
+{
+	/**
+	 * Searcher manager of the index directory
+	 */
+	private SearcherManager manager;
+
+	/**
+	 * Index searcher acquired (null once released)
+	 */
+	private IndexSearcher is;
+
+	/**
+	 * Term searched in the index (the composite key, or the predicate for the indexes built before composite keys)
+	 */
+	private Term key;
+
+	/**
+	 * Segments of the index
+	 */
+	private List<AtomicReaderContext> leaves;
+
+	/**
+	 * Next segment to be walked
+	 */
+	private int leaf;
+
+	/**
+	 * Postings of the term in the current segment (null before the first segment and between segments)
+	 */
+	private DocsEnum docs;
+
+	/**
+	 * First document of the current segment
+	 */
+	private int docBase;
+
+	/**
+	 * Max number of documents to be read
+	 */
+	private int limit;
+
+	/**
+	 * Number of documents read
+	 */
+	private int count;
+
+	/**
+	 * Whether a document has been left unread because of the limit
+	 */
+	private boolean truncated;
+
+	/**
+	 * Whether the index has the entity layout or not
+	 */
+	private boolean entityLayout;
+
+	/**
+	 * Predicate searched (as written in the index)
+	 */
+	private String predicate;
+
+	/**
+	 * Term searched
+	 */
+	private String term;
+
+	/**
+	 * Enum specifying whether to search subject (KEY) or object (VALUE)
+	 */
+	private Searcheable search;
+
+	/**
+	 * Stored fields to be loaded
+	 */
+	private Set<String> fieldsToLoad;
+
+	/**
+	 * Subjects already returned by a VALUE search, compared by the numeric value of their MID
+	 */
+	private LongHashSet subjects = new LongHashSet();
+
+	/**
+	 * Values of the current document not returned yet
+	 */
+	private String[] pending = new String[0];
+
+	/**
+	 * Position of the next pending value
+	 */
+	private int position;
+
+	/**
+	 * Constructor
+	 * @param manager Searcher manager of the index directory
+	 * @param is Index searcher acquired from the manager, released by the results
+	 * @param key Term searched in the index
+	 * @param limit Max number of documents to be read
+	 * @param entityLayout Whether the index has the entity layout or not
+	 * @param predicate Predicate searched (as written in the index)
+	 * @param term Term searched
+	 * @param search Enum specifying whether to search subject (KEY) or object (VALUE)
+	 */
+	IndexResults(SearcherManager manager, IndexSearcher is, Term key, int limit, boolean entityLayout, String predicate, String term, Searcheable search)
+	{
+		this.manager = manager;
+		this.is = is;
+		this.key = key;
+		this.limit = limit;
+		leaves = is.getIndexReader().leaves();
+		this.entityLayout = entityLayout;
+		this.predicate = predicate;
+		this.term = term;
+		this.search = search;
+		fieldsToLoad = new HashSet<String>(Arrays.asList("subject", entityLayout ? predicate : "object"));
+	}
+
+	@Override
+	public boolean next() throws IOException
+	{
+		while (position == pending.length)
+		{
+			if (is == null) return false;
+			int doc = nextMatch();
+			if (doc < 0)
+			{
+				close();
+				return false;
+			}
+			Document document = is.doc(doc, fieldsToLoad);
+			subject = document.get("subject");
+			position = 0;
+			pending = new String[0];
+			if (entityLayout)
+			{
+				pending = search == Searcheable.KEY ? document.getValues(predicate) : new String[] {subject};
+				continue;
+			}
+			//The predicate scan of the indexes built before composite keys matches other subjects and objects too
+			String searched = document.get(search == Searcheable.KEY ? "subject" : "object");
+			if (searched == null || !searched.equals(term)) continue;
+			if (search == Searcheable.KEY) pending = document.getValues("object");
+			else
+			{
+				long number = Dictionary.toNumber(subject);
+				if (number < 0 || subjects.add(number)) pending = new String[] {subject};
+			}
+		}
+		value = pending[position++].replaceAll("-", " ");
+		return true;
+	}
+
+	/**
+	 * Get the next document matching the term, moving to the next segment when the current one has no more postings
+	 * @return Next document matched (-1 if there are not, or the limit has been reached)
+	 * @throws IOException
+	 */
+	private int nextMatch() throws IOException
+	{
+		while (true)
+		{
+			if (docs != null)
+			{
+				int next = docs.nextDoc();
+				if (next != DocIdSetIterator.NO_MORE_DOCS)
+				{
+					if (count == limit) {truncated = true; return -1;}
+					count++;
+					return docBase + next;
+				}
+				docs = null;
+			}
+			if (leaf == leaves.size()) return -1;
+			AtomicReaderContext context = leaves.get(leaf++);
+			Terms terms = context.reader().terms(key.field());
+			if (terms == null) continue;
+			TermsEnum termsEnum = terms.iterator(null);
+			if (!termsEnum.seekExact(key.bytes())) continue;
+			docBase = context.docBase;
+			docs = termsEnum.docs(context.reader().getLiveDocs(), null, DocsEnum.FLAG_NONE);
+		}
+	}
+
+	@Override
+	public boolean isTruncated() {return truncated;}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (is == null) return;
+		IndexSearcher acquired = is;
+		is = null;
+		manager.release(acquired);
+	}
+}
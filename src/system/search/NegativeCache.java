@@ -0,0 +1,125 @@
+package system.search;
+
+import java.util.concurrent.atomic.AtomicLong;
+import system.Searcheable;
+import system.index.LongHashSet;
+
+/**
+ * Bounded set of the lookups without results, so that a miss repeated by the questions does not search the index again.
+ * Only a 64-bit fingerprint of each lookup is kept, in two generations: when the current one is full it becomes the old one
+ * and the previous old one is dropped, so the lookups missed recently are remembered within a fixed memory.
+ * Unlike a bloom filter, a lookup with results is reported as missed only if its fingerprint collides with a missed one.
+ * The generation of the index is part of the fingerprint, so a miss read before the index has been reopened is never reported afterwards.
+ * @author Francesco Raco
+ *
+ */
+public class NegativeCache
+{
+	/**
+	 * Fingerprints added since the last rotation
+	 */
+	private LongHashSet current;
+
+	/**
+	 * Fingerprints of the previous generation
+	 */
+	private LongHashSet old;
+
+	/**
+	 * Max number of fingerprints of a generation
+	 */
+	private final int capacity;
+
+	/**
+	 * Number of lookups found in the cache
+	 */
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * Constructor
+	 * @param capacity Max number of fingerprints of a generation (0 disables the cache)
+	 */
+	public NegativeCache(int capacity)
+	{
+		this.capacity = Math.max(0, capacity);
+		current = new LongHashSet(this.capacity);
+		old = new LongHashSet();
+	}
+
+	/**
+	 * Get the fingerprint of a lookup (FNV-1a over its parts)
+	 * @param index Name of the index directory
+	 * @param field String value representing the field
+	 * @param term String value representing the term
+	 * @param search Enum specifying whether the subject (KEY) or the object (VALUE) has been searched
+	 * @param generation Generation of the index
+	 * @return Fingerprint of the lookup
+	 */
+	private static long fingerprint(String index, String field, String term, Searcheable search, long generation)
+	{
+		long h = 0xcbf29ce484222325L;
+		for (String part : new String[] {index, field, term, search.name()})
+		{
+			for (int i = 0; i < part.length(); i++) h = (h ^ part.charAt(i)) * 0x100000001b3L;
+			h = (h ^ 0xffff) * 0x100000001b3L;
+		}
+		for (int i = 0; i < 64; i += 8) h = (h ^ ((generation >>> i) & 0xff)) * 0x100000001b3L;
+		return h == Long.MIN_VALUE ? 0 : h;
+	}
+
+	/**
+	 * Know whether a lookup is known to have no results
+	 * @param index Name of the index directory
+	 * @param field String value representing the field
+	 * @param term String value representing the term
+	 * @param search Enum specifying whether the subject (KEY) or the object (VALUE) has been searched
+	 * @param generation Generation of the index read by the lookup
+	 * @return Whether the lookup has been missed recently or not
+	 */
+	public boolean contains(String index, String field, String term, Searcheable search, long generation)
+	{
+		long fingerprint = fingerprint(index, field, term, search, generation);
+		boolean missed;
+		synchronized (this) {missed = current.contains(fingerprint) || old.contains(fingerprint);}
+		if (missed) hits.incrementAndGet();
+		return missed;
+	}
+
+	/**
+	 * Remember a lookup without results
+	 * @param index Name of the index directory
+	 * @param field String value representing the field
+	 * @param term String value representing the term
+	 * @param search Enum specifying whether the subject (KEY) or the object (VALUE) has been searched
+	 * @param generation Generation of the index when the lookup has started
+	 */
+	public void add(String index, String field, String term, Searcheable search, long generation)
+	{
+		if (capacity == 0) return;
+		long fingerprint = fingerprint(index, field, term, search, generation);
+		synchronized (this)
+		{
+			if (!current.add(fingerprint) || current.size() < capacity) return;
+			old = current;
+			current = new LongHashSet(capacity);
+		}
+	}
+
+	/**
+	 * Forget every lookup (the counter is kept)
+	 */
+	public synchronized void clear()
+	{
+		current.clear();
+		old.clear();
+	}
+
+	/**
+	 * Get the number of lookups found in the cache
+	 * @return Number of hits
+	 */
+	public long getHits() {return hits.get();}
+
+	@Override
+	public String toString() {return "hits " + getHits();}
+}
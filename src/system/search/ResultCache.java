@@ -0,0 +1,387 @@
+package system.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import system.Searcheable;
+
+/**
+ * Bounded cache of the results of the lookups, keyed by index, field, term, kind of search and generation of the index
+ * (a result read before the index has been reopened is never returned afterwards, even if it is put after the cache has been emptied).
+ * Eviction follows W-TinyLFU: new results enter a small LRU window, and a result leaving the window is admitted
+ * into the main space (a segmented LRU) only if it has been requested more often than the result it would evict,
+ * according to a sketch of the recent frequencies. The size of the cache is a budget of bytes, estimated from the
+ * strings cached. Reads are lock-free: they record the access only if the policy is not being updated by another thread.
+ * @author Francesco Raco
+ *
+ */
+public class ResultCache
+{
+	/**
+	 * Part of the budget reserved to the window
+	 */
+	private static final double WINDOW_RATIO = 0.01;
+
+	/**
+	 * Part of the main space reserved to the protected segment
+	 */
+	private static final double PROTECTED_RATIO = 0.8;
+
+	/**
+	 * Average size in bytes of an entry, used to size the frequency sketch
+	 */
+	private static final int AVERAGE_WEIGHT = 256;
+
+	/**
+	 * Queues of the policy
+	 */
+	private enum Queue {WINDOW, PROBATION, PROTECTED}
+
+	/**
+	 * Key of a lookup
+	 */
+	private static final class Key
+	{
+		private final String index, field, term;
+		private final Searcheable search;
+		private final long generation;
+		private final int hash;
+
+		private Key(String index, String field, String term, Searcheable search, long generation)
+		{
+			this.index = index;
+			this.field = field;
+			this.term = term;
+			this.search = search;
+			this.generation = generation;
+			hash = (((index.hashCode() * 31 + field.hashCode()) * 31 + term.hashCode()) * 31 + search.ordinal()) * 31 + (int) (generation ^ (generation >>> 32));
+		}
+
+		@Override
+		public int hashCode() {return hash;}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key)) return false;
+			Key k = (Key) o;
+			return hash == k.hash && search == k.search && generation == k.generation && term.equals(k.term) && field.equals(k.field) && index.equals(k.index);
+		}
+	}
+
+	/**
+	 * Entry of the cache, linked into the queue it belongs to
+	 */
+	private static final class Node
+	{
+		private final Key key;
+		private final Set<String> value;
+		private final long weight;
+		private Queue queue;
+		private Node previous, next;
+
+		private Node(Key key, Set<String> value, long weight)
+		{
+			this.key = key;
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * Doubly linked list of nodes, from the least to the most recently used
+	 */
+	private static final class LinkedQueue
+	{
+		private Node first, last;
+		private long weight;
+
+		private void add(Node node)
+		{
+			node.previous = last;
+			node.next = null;
+			if (last == null) first = node;
+			else last.next = node;
+			last = node;
+			weight += node.weight;
+		}
+
+		private void remove(Node node)
+		{
+			if (node.previous == null) first = node.next;
+			else node.previous.next = node.next;
+			if (node.next == null) last = node.previous;
+			else node.next.previous = node.previous;
+			node.previous = node.next = null;
+			weight -= node.weight;
+		}
+
+		private void clear()
+		{
+			first = last = null;
+			weight = 0;
+		}
+	}
+
+	/**
+	 * Entries of the cache
+	 */
+	private final Map<Key, Node> entries = new ConcurrentHashMap<Key, Node>();
+
+	/**
+	 * Lock guarding the policy (queues and sketch)
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Queues of the policy
+	 */
+	private final LinkedQueue window = new LinkedQueue(), probation = new LinkedQueue(), protectedQueue = new LinkedQueue();
+
+	/**
+	 * Sketch of the frequencies of the keys
+	 */
+	private final FrequencySketch sketch;
+
+	/**
+	 * Budget of the cache, of the window and of the protected segment in bytes
+	 */
+	private final long maximum, windowMaximum, protectedMaximum;
+
+	/**
+	 * Counters of the cache
+	 */
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), evictions = new AtomicLong();
+
+	/**
+	 * Constructor
+	 * @param budget Budget of the cache in bytes (0 disables the cache)
+	 */
+	public ResultCache(long budget)
+	{
+		maximum = Math.max(0, budget);
+		windowMaximum = (long) (maximum * WINDOW_RATIO);
+		protectedMaximum = (long) ((maximum - windowMaximum) * PROTECTED_RATIO);
+		sketch = new FrequencySketch((int) Math.min(1 << 24, Math.max(1024, maximum / AVERAGE_WEIGHT)));
+	}
+
+	/**
+	 * Get the result of a lookup
+	 * @param index Name of the index directory
+	 * @param field String value representing the field
+	 * @param term String value representing the term
+	 * @param search Enum specifying whether the subject (KEY) or the object (VALUE) has been searched
+	 * @param generation Generation of the index read by the lookup
+	 * @return Unmodifiable result of the lookup (null if it is not cached)
+	 */
+	public Set<String> get(String index, String field, String term, Searcheable search, long generation)
+	{
+		Key key = new Key(index, field, term, search, generation);
+		Node node = entries.get(key);
+		if (node == null)
+		{
+			misses.incrementAndGet();
+			if (lock.tryLock())
+			{
+				try {sketch.increment(key.hash);}
+				finally {lock.unlock();}
+			}
+			return null;
+		}
+		hits.incrementAndGet();
+		if (lock.tryLock())
+		{
+			try {onAccess(node);}
+			finally {lock.unlock();}
+		}
+		return node.value;
+	}
+
+	/**
+	 * Put the result of a lookup (results bigger than the budget are not cached)
+	 * @param index Name of the index directory
+	 * @param field String value representing the field
+	 * @param term String value representing the term
+	 * @param search Enum specifying whether the subject (KEY) or the object (VALUE) has been searched
+	 * @param generation Generation of the index when the lookup has started
+	 * @param value Result of the lookup
+	 * @return Unmodifiable result cached
+	 */
+	public Set<String> put(String index, String field, String term, Searcheable search, long generation, Set<String> value)
+	{
+		Set<String> result = Collections.unmodifiableSet(value);
+		Key key = new Key(index, field, term, search, generation);
+		long weight = weigh(key, value);
+		if (weight > maximum - windowMaximum) return result;
+		lock.lock();
+		try
+		{
+			Node old = entries.get(key);
+			if (old != null) remove(old);
+			Node node = new Node(key, result, weight);
+			node.queue = Queue.WINDOW;
+			window.add(node);
+			entries.put(key, node);
+			//The access has been counted by the get which has missed, so the sketch is not incremented again
+			while (window.weight > windowMaximum) admit(window.first);
+		}
+		finally {lock.unlock();}
+		return result;
+	}
+
+	/**
+	 * Record an access to an entry (called holding the lock)
+	 * @param node Entry accessed
+	 */
+	private void onAccess(Node node)
+	{
+		if (node.queue == null) return;
+		sketch.increment(node.key.hash);
+		switch (node.queue)
+		{
+			case WINDOW: window.remove(node); window.add(node); break;
+			case PROTECTED: protectedQueue.remove(node); protectedQueue.add(node); break;
+			case PROBATION:
+				probation.remove(node);
+				node.queue = Queue.PROTECTED;
+				protectedQueue.add(node);
+				while (protectedQueue.weight > protectedMaximum)
+				{
+					Node demoted = protectedQueue.first;
+					protectedQueue.remove(demoted);
+					demoted.queue = Queue.PROBATION;
+					probation.add(demoted);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Move the least recently used entry of the window into the main space, if it is requested more often than every entry it would evict
+	 * (called holding the lock). Admission is decided before evicting anything: a rejected candidate leaves the main space as it was.
+	 * @param candidate Least recently used entry of the window
+	 */
+	private void admit(Node candidate)
+	{
+		window.remove(candidate);
+		candidate.queue = null;
+		long excess = probation.weight + protectedQueue.weight + candidate.weight - (maximum - windowMaximum);
+		int frequency = sketch.frequency(candidate.key.hash);
+		List<Node> victims = new ArrayList<Node>();
+		Node victim = probation.first != null ? probation.first : protectedQueue.first;
+		while (excess > 0)
+		{
+			if (victim == null || frequency <= sketch.frequency(victim.key.hash))
+			{
+				entries.remove(candidate.key);
+				evictions.incrementAndGet();
+				return;
+			}
+			victims.add(victim);
+			excess -= victim.weight;
+			victim = victim.next != null ? victim.next : victim.queue == Queue.PROBATION ? protectedQueue.first : null;
+		}
+		for (Node evicted : victims)
+		{
+			remove(evicted);
+			evictions.incrementAndGet();
+		}
+		candidate.queue = Queue.PROBATION;
+		probation.add(candidate);
+	}
+
+	/**
+	 * Remove an entry (called holding the lock)
+	 * @param node Entry to be removed
+	 */
+	private void remove(Node node)
+	{
+		if (node.queue != null)
+		{
+			switch (node.queue)
+			{
+				case WINDOW: window.remove(node); break;
+				case PROBATION: probation.remove(node); break;
+				case PROTECTED: protectedQueue.remove(node); break;
+			}
+			node.queue = null;
+		}
+		entries.remove(node.key);
+	}
+
+	/**
+	 * Remove every entry (the counters are kept)
+	 */
+	public void clear()
+	{
+		lock.lock();
+		try
+		{
+			entries.clear();
+			window.clear();
+			probation.clear();
+			protectedQueue.clear();
+			sketch.clear();
+		}
+		finally {lock.unlock();}
+	}
+
+	/**
+	 * Estimate the memory used by an entry
+	 * @param key Key of the entry
+	 * @param value Value of the entry
+	 * @return Size in bytes of the entry
+	 */
+	private static long weigh(Key key, Set<String> value)
+	{
+		long weight = 128 + 2L * (key.field.length() + key.term.length());
+		for (String s : value) weight += 72 + 2L * s.length();
+		return weight;
+	}
+
+	/**
+	 * Get the number of lookups found in the cache
+	 * @return Number of hits
+	 */
+	public long getHits() {return hits.get();}
+
+	/**
+	 * Get the number of lookups not found in the cache
+	 * @return Number of misses
+	 */
+	public long getMisses() {return misses.get();}
+
+	/**
+	 * Get the number of entries evicted (or not admitted) to keep the cache into its budget
+	 * @return Number of evictions
+	 */
+	public long getEvictions() {return evictions.get();}
+
+	/**
+	 * Get the number of entries
+	 * @return Number of entries
+	 */
+	public int size() {return entries.size();}
+
+	/**
+	 * Get the estimated memory used by the entries
+	 * @return Size in bytes of the entries
+	 */
+	public long getWeight()
+	{
+		lock.lock();
+		try {return window.weight + probation.weight + protectedQueue.weight;}
+		finally {lock.unlock();}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "hits " + getHits() + ", misses " + getMisses() + ", evictions " + getEvictions() + ", entries " + size() + ", bytes " + getWeight();
+	}
+}
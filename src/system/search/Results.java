@@ -0,0 +1,127 @@
+package system.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Stream of the results of a search, read one pair of subject and value at a time instead of building
+ * the whole result in memory (the same pair may be returned more than once).
+ * It must be closed when it is not needed anymore, even if it has not been read to the end.
+ * @author Francesco Raco
+ *
+ */
+public abstract class Results implements Closeable
+{
+	/**
+	 * Subject of the current result
+	 */
+	protected String subject;
+
+	/**
+	 * Value of the current result
+	 */
+	protected String value;
+
+	/**
+	 * Move to the next result
+	 * @return Whether there is another result or not
+	 * @throws IOException
+	 */
+	public abstract boolean next() throws IOException;
+
+	/**
+	 * Get the subject of the current result
+	 * @return String value of the subject
+	 */
+	public String getSubject() {return subject;}
+
+	/**
+	 * Get the value of the current result (the object for KEY searches, the subject itself for VALUE searches)
+	 * @return String value of the value
+	 */
+	public String getValue() {return value;}
+
+	/**
+	 * Know whether the search has been stopped by a limit before finding every match (so the results may be incomplete)
+	 * @return Whether the search has been stopped or not
+	 */
+	public boolean isTruncated() {return false;}
+
+	@Override
+	public void close() throws IOException {}
+
+	/**
+	 * Get the results of a list of values
+	 * @param key String value of the subject of every value (null if each value is a subject)
+	 * @param values List of values
+	 * @return Results of the values
+	 */
+	static Results of(final String key, final List<String> values)
+	{
+		return new Results()
+		{
+			private Iterator<String> iterator = values.iterator();
+
+			@Override
+			public boolean next()
+			{
+				if (!iterator.hasNext()) return false;
+				String next = iterator.next();
+				subject = key == null ? next : key;
+				value = next.replaceAll("-", " ");
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Get the results of many searches, read one after another
+	 * @param parts Results of the searches
+	 * @return Concatenated results
+	 */
+	static Results concat(final List<Results> parts)
+	{
+		return new Results()
+		{
+			private int current;
+
+			@Override
+			public boolean next() throws IOException
+			{
+				for (; current < parts.size(); current++)
+				{
+					Results part = parts.get(current);
+					if (part.next())
+					{
+						subject = part.getSubject();
+						value = part.getValue();
+						return true;
+					}
+					part.close();
+				}
+				return false;
+			}
+
+			@Override
+			public boolean isTruncated()
+			{
+				for (Results part : parts) if (part.isTruncated()) return true;
+				return false;
+			}
+
+			@Override
+			public void close() throws IOException
+			{
+				IOException exception = null;
+				for (Results part : parts)
+				{
+					try {part.close();}
+					catch (IOException e) {if (exception == null) exception = e;}
+				}
+				if (exception != null) throw exception;
+			}
+		};
+	}
+}
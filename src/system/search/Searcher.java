@@ -3,21 +3,42 @@ package system.search;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.TreeSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
-import org.apache.lucene.document.Document;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.SimpleFSDirectory;
+import org.apache.lucene.util.BytesRef;
 import system.Element;
 import system.Language;
 import system.NotFoundException;
@@ -25,27 +46,228 @@ import system.Query;
 import system.Searcheable;
 import system.Topic;
 import system.Type;
+import system.UncorrectFormatLanguage;
 import system.UncorrectIdException;
+import system.index.Dictionary;
+import system.index.FreeBaseIndexer;
+import system.index.IdSet;
+import system.index.TripleStore;
 import system.qa.UncorrectInputException;
 
 public class Searcher
 {
 	/**
-	 * single instance of Searcher
+	 * Default index directory
+	 */
+	public static final String DEFAULT_INDEX = "index";
+	
+	/**
+	 * Searchers of the index directories served, one per index directory, registered only once opened
 	 * @author Francesco Raco
 	 * 
 	 */
-	private static Searcher s;
+	private static final Map<String, Searcher> searchers = new ConcurrentHashMap<String, Searcher>();
+	
+	/**
+	 * Searcher of the default index directory (served by name only once registered)
+	 */
+	private static volatile Searcher defaultSearcher;
+	
+	/**
+	 * Index directory read by this searcher
+	 */
+	private final String index;
+	
+	/**
+	 * Reference-counted searchers, one per directory of the index (the index itself or its shards), opened once and shared by every lookup
+	 */
+	private Map<String, SearcherManager> managers = new ConcurrentHashMap<String, SearcherManager>();
+	
+	/**
+	 * Dictionary of the index, if its predicates are encoded
+	 */
+	private volatile Dictionary dictionary;
+	
+	/**
+	 * Whether the index directory has been found without a dictionary or not (until it is refreshed)
+	 */
+	private volatile boolean dictionaryMissing;
+	
+	/**
+	 * Memory-mapped triple store, if the index directory contains a store in place of a Lucene index
+	 * (KEY and VALUE lookups read the rows of its adjacency graph, if it has one)
+	 */
+	private volatile TripleStore store;
+	
+	/**
+	 * Directories of the shards of the Lucene index (a single directory if the index is not sharded)
+	 */
+	private volatile File[] shards;
 	
 	/**
-	 * Index directory with its default value
+	 * Default budget of the result cache in bytes
 	 */
-	private String index = "index";
+	public static final long DEFAULT_CACHE_BUDGET = 64L << 20;
+	
+	/**
+	 * Results of the lookups, shared by every request and emptied when the index is refreshed
+	 */
+	private volatile ResultCache cache = new ResultCache(DEFAULT_CACHE_BUDGET);
+	
+	/**
+	 * Max number of lookups without results remembered by a generation of the negative cache
+	 */
+	public static final int NEGATIVE_CACHE_CAPACITY = 100000;
+	
+	/**
+	 * Lookups without results, emptied when the index is refreshed
+	 */
+	private NegativeCache misses = new NegativeCache(NEGATIVE_CACHE_CAPACITY);
+	
+	/**
+	 * Generation of the index, increased every time it is reopened or closed (what has been read before is stale, and the result cache
+	 * keeps it apart)
+	 */
+	private final AtomicLong generation = new AtomicLong();
+	
+	/**
+	 * Threads searching the shards of an index concurrently
+	 */
+	private static final ExecutorService SHARD_EXECUTOR = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "shard-searcher");
+			t.setDaemon(true);
+			return t;
+		}
+	});
 	
 	/**
 	 * Private constructor
+	 * @param index Index directory to be read
+	 */
+	private Searcher(String index) {this.index = index;}
+	
+	/**
+	 * Get the directories of the shards of the index
+	 * @return Directories of the shards (only the index directory if the index is not sharded)
+	 * @throws IOException
+	 */
+	private File[] getShards() throws IOException
+	{
+		File[] dirs = shards;
+		if (dirs == null)
+		{
+			dirs = FreeBaseIndexer.getShards(new File(index));
+			shards = dirs;
+		}
+		return dirs;
+	}
+	
+	/**
+	 * Get the searcher manager of the shard of the index containing a subject, opening the shard the first time it is required
+	 * @param subject String value of the subject (null for the first shard)
+	 * @return Searcher manager of the shard
+	 * @throws IOException
+	 */
+	private SearcherManager getManager(String subject) throws IOException
+	{
+		File[] dirs = getShards();
+		return getManagerOf(dirs[subject == null ? 0 : FreeBaseIndexer.getShard(subject, dirs.length)]);
+	}
+	
+	/**
+	 * Get the searcher manager of an index directory, opening the index the first time it is required
+	 * @param dir Index directory (the whole index or one of its shards)
+	 * @return Searcher manager of the index directory
+	 * @throws IOException
+	 */
+	private SearcherManager getManagerOf(File dir) throws IOException
+	{
+		String key = dir.getPath();
+		SearcherManager manager = managers.get(key);
+		if (manager != null) return manager;
+		synchronized (managers)
+		{
+			manager = managers.get(key);
+			if (manager == null)
+			{
+				manager = new SearcherManager(SimpleFSDirectory.open(dir), new SearcherFactory());
+				managers.put(key, manager);
+			}
+		}
+		return manager;
+	}
+	
+	/**
+	 * Get the triple store of the index directory, opening it the first time it is required
+	 * @return Triple store of the index directory (null if the directory contains a Lucene index)
+	 * @throws IOException
+	 */
+	private TripleStore getStore() throws IOException
+	{
+		TripleStore store = this.store;
+		if (store != null || shards != null) return store;
+		synchronized (managers)
+		{
+			store = this.store;
+			if (store == null && TripleStore.exists(new File(index)))
+			{
+				store = TripleStore.open(new File(index));
+				this.store = store;
+			}
+		}
+		return store;
+	}
+	
+	/**
+	 * Open the index (if it is not open yet), so that the first lookup does not pay the opening cost
+	 * @throws IOException
+	 */
+	public void open() throws IOException
+	{
+		if (getStore() == null) for (File dir : getShards()) getManagerOf(dir);
+	}
+	
+	/**
+	 * Make visible the changes committed to the index since it has been opened
+	 * @return Whether the index has been reopened or not
+	 * @throws IOException
+	 */
+	public boolean refresh() throws IOException
+	{
+		//A triple store never changes, while a delta may have added predicates to the dictionary
+		if (getStore() != null) return false;
+		dictionary = null;
+		dictionaryMissing = false;
+		shards = null;
+		boolean refreshed = false;
+		for (File dir : getShards()) refreshed |= getManagerOf(dir).maybeRefresh();
+		if (refreshed) {cache.clear(); misses.clear(); generation.incrementAndGet();}
+		return refreshed;
+	}
+	
+	/**
+	 * Close every index opened (searches still running keep their own reference until they end)
+	 * @throws IOException
 	 */
-	private Searcher() {};
+	public void close() throws IOException
+	{
+		synchronized (managers)
+		{
+			for (SearcherManager manager : managers.values()) manager.close();
+			managers.clear();
+			dictionary = null;
+			dictionaryMissing = false;
+			store = null;
+			shards = null;
+			cache.clear();
+			misses.clear();
+			generation.incrementAndGet();
+		}
+	}
 	
 	/**
 	 * Get a set containing the results of the search
@@ -53,21 +275,63 @@ public class Searcher
 	 * @param field String value representing the field where to search
 	 * @param term String value representing the term to be searched
 	 * @param search Enum specifying whether to search subject (KEY) or object (VALUE)
-	 * @return Set containing the results of the search
+	 * @param limit Max number of results (Query.NO_LIMIT for every result)
+	 * @return Set containing the results of the search (unmodifiable, shared with the result cache, if it is complete), empty if there are not
 	 * @throws IOException
 	 * @throws ParseException
-	 * @throws NotFoundException
 	 */
-	private Set<String> getAllProperties(Class<?> c, String field, String term, Searcheable search) throws IOException, ParseException, NotFoundException
+	private Set<String> getAllProperties(Class<?> c, String field, String term, Searcheable search, int limit) throws IOException, ParseException
+	{
+		//The generation is read before the index: a result (or a miss) read from a reader being replaced is cached under the old generation
+		long current = generation.get();
+		ResultCache cache = this.cache;
+		Set<String> results = cache.get(index, field, term, search, current);
+		if (results != null) return first(results, limit);
+		//A miss is reported as an empty set, never as an exception
+		if (misses.contains(index, field, term, search, current)) return Collections.<String>emptySet();
+		results = new IdSet();
+		Results stream = getResults(field, term, search, limit);
+		boolean complete = false;
+		try
+		{
+			//The reading stops as soon as there are enough results
+			while (results.size() < limit)
+			{
+				if (!stream.next()) {complete = !stream.isTruncated(); break;}
+				results.add(search == Searcheable.KEY ? stream.getValue() : stream.getSubject());
+			}
+		}
+		finally {stream.close();}
+		if (!complete)
+		{
+			//Partial results are not cached (if the documents collected had too few distinct results, the search is repeated without limit)
+			if (results.size() < limit) return first(getAllProperties(c, field, term, search, Query.NO_LIMIT), limit);
+			return results;
+		}
+		if (results.isEmpty())
+		{
+			misses.add(index, field, term, search, current);
+			return Collections.<String>emptySet();
+		}
+		return cache.put(index, field, term, search, current, results);
+	}
+	
+	/**
+	 * Get the first results of a set
+	 * @param results Set of results
+	 * @param limit Max number of results
+	 * @return The set itself if it is small enough, otherwise a set containing its first results (in no particular order)
+	 */
+	private static Set<String> first(Set<String> results, int limit)
 	{
-		Map<String, Set<String>> queryMap = getAllElementsMap(field, term, search);
-		Set<String> results = new TreeSet<String>();
-		switch(search)
+		if (results.size() <= limit) return results;
+		Set<String> first = new IdSet();
+		for (String result : results)
 		{
-		case KEY: results = queryMap.get(term); break;
-		case VALUE: results = queryMap.keySet(); break;
+			if (first.size() == limit) break;
+			first.add(result);
 		}
-		return results;
+		return first;
 	}
 	
 	/**
@@ -76,7 +340,8 @@ public class Searcher
 	 * @param field String value representing the field where to search
 	 * @param term String value representing the term to be searched
 	 * @param search Enum specifying whether to search subject (KEY) or object (VALUE)
-	 * @return set containing all elements related to the search
+	 * @param limit Max number of elements (Query.NO_LIMIT for every element)
+	 * @return set containing all elements related to the search (empty if there are not)
 	 * @throws IOException
 	 * @throws NoSuchMethodException
 	 * @throws SecurityException
@@ -87,22 +352,18 @@ public class Searcher
 	 * @throws ParseException
 	 * @throws UncorrectIdException
 	 */
-	private Set<Element> getAllElements(Class<?> c, String field, String term, Searcheable search)
-			throws IOException, NoSuchMethodException, NotFoundException, SecurityException,
+	private Set<Element> getAllElements(Class<?> c, String field, String term, Searcheable search, int limit)
+			throws IOException, NoSuchMethodException, SecurityException,
 			InstantiationException, IllegalAccessException, IllegalArgumentException,
 			InvocationTargetException, ParseException, UncorrectIdException
 	{
-		Set<String> results = getAllProperties(c, field, term, search);
-		Set<Element> mySet = new TreeSet<Element>();
-		try
-		{
-			for (String str: results)
-		    {
-				if (c.equals(Topic.class)) mySet.add(new Topic(str));
-				else mySet.add(new Type(str));
-		    }
-		}
-		catch (NullPointerException e) {throw new NotFoundException();}
+		Set<String> results = getAllProperties(c, field, term, search, limit);
+		Set<Element> mySet = new HashSet<Element>();
+		for (String str: results)
+	    {
+			if (c.equals(Topic.class)) mySet.add(new Topic(str, this));
+			else mySet.add(new Type(str, this));
+	    }
 		return mySet;
 	}
 	
@@ -116,12 +377,40 @@ public class Searcher
 	}
 	
 	/**
-	 * Change index
-	 * @param index Name of index directory to be read
+	 * Replace the result cache with an empty one
+	 * @param budget Budget of the cache in bytes (0 disables the cache)
+	 */
+	public void setCacheBudget(long budget)
+	{
+		cache = new ResultCache(budget);
+	}
+	
+	/**
+	 * Get the result cache (for its counters)
+	 * @return Result cache
 	 */
-	public void changeIndex(String index)
+	public ResultCache getCache()
 	{
-		this.index = index;
+		return cache;
+	}
+	
+	/**
+	 * Get the generation of the index, increased every time it is reopened or closed
+	 * (results read in a previous generation may no longer match the index)
+	 * @return Generation of the index
+	 */
+	public long getGeneration()
+	{
+		return generation.get();
+	}
+	
+	/**
+	 * Get the cache of the lookups without results (for its counter)
+	 * @return Negative cache
+	 */
+	public NegativeCache getNegativeCache()
+	{
+		return misses;
 	}
 	
 	/**
@@ -132,7 +421,7 @@ public class Searcher
 	 */
 	public Type getType(String str) throws UncorrectIdException
 	{
-		return new Type(str);
+		return new Type(str, this);
 	}
 
 	/**
@@ -149,14 +438,13 @@ public class Searcher
 	 * @throws IOException
 	 * @throws ParseException
 	 * @throws UncorrectIdException
-	 * @throws NotFoundException 
 	 */
 	private Set<Topic> topicsProcessing(String field, String label) throws NoSuchMethodException,
 	SecurityException, InstantiationException, IllegalAccessException, IllegalArgumentException,
-	InvocationTargetException, IOException, ParseException, UncorrectIdException, NotFoundException
+	InvocationTargetException, IOException, ParseException, UncorrectIdException
 	{
-		Set<Topic> topics = new TreeSet<Topic>();
-		Set<Element> elements = getAllElements(Topic.class, field, label, Searcheable.VALUE);
+		Set<Topic> topics = new HashSet<Topic>();
+		Set<Element> elements = getAllElements(Topic.class, field, label, Searcheable.VALUE, Query.NO_LIMIT);
 		for (Element e : elements) topics.add((Topic) e);
 		return topics;
 	}
@@ -173,45 +461,583 @@ public class Searcher
 	 */
 	private Map<String, Set<String>> getAllElementsMap(String field, String term, Searcheable search) throws IOException, ParseException, NotFoundException
 	{
-		TermQuery q = new TermQuery(new Term("predicate", field));
-		IndexReader dir = DirectoryReader.open( SimpleFSDirectory.open(new
-		File(index)));
-		IndexSearcher is = new IndexSearcher(dir);
-		TopDocs docs = is.search(q, 20000000);
-		Map<String, Set<String>> map = new TreeMap<String, Set<String>>();
-		String toSearch = "";
-		switch(search)
+		return toMap(getResults(field, term, search));
+	}
+	
+	/**
+	 * Get the map containing all associations between string values of elements returned by the search on an index directory
+	 * @param manager Searcher manager of the index directory (the whole index or one of its shards)
+	 * @param field String value representing the field where to search
+	 * @param term String value representing the term to be searched
+	 * @param search Enum specifying whether to search subject (KEY) or object (VALUE) in the field
+	 * @return map containing all associations between string values (representing ID/Label) of elements returned by the search
+	 * @throws IOException
+	 */
+	private Map<String, Set<String>> getAllElementsMap(SearcherManager manager, String field, String term, Searcheable search) throws IOException
+	{
+		return toMap(getResults(manager, field, term, search, Query.NO_LIMIT));
+	}
+	
+	/**
+	 * Read and close the results of a search, collecting them into a map
+	 * @param results Results of the search
+	 * @return map containing all associations between string values (representing ID/Label) of elements returned by the search
+	 * @throws IOException
+	 */
+	private static Map<String, Set<String>> toMap(Results results) throws IOException
+	{
+		Map<String, Set<String>> map = new HashMap<String, Set<String>>();
+		try
+		{
+			while (results.next())
+			{
+				Set<String> values = map.get(results.getSubject());
+				if (values == null) {values = new IdSet(); map.put(results.getSubject(), values);}
+				values.add(results.getValue());
+			}
+		}
+		finally {results.close();}
+		return map;
+	}
+	
+	/**
+	 * Get the results of a search as a stream, without scoring the hits and without building the whole result in memory
+	 * (the stream must be closed after use)
+	 * @param field String value representing the field where to search
+	 * @param term String value representing the term to be searched
+	 * @param search Enum specifying whether to search subject (KEY) or object (VALUE) in the field
+	 * @return Results of the search
+	 * @throws IOException
+	 */
+	public Results getResults(String field, String term, Searcheable search) throws IOException
+	{
+		return getResults(field, term, search, Query.NO_LIMIT);
+	}
+	
+	/**
+	 * Get the results of a search as a stream, stopping the collection of the hits once a number of documents has been found
+	 * (the stream must be closed after use)
+	 * @param field String value representing the field where to search
+	 * @param term String value representing the term to be searched
+	 * @param search Enum specifying whether to search subject (KEY) or object (VALUE) in the field
+	 * @param limit Max number of documents to be collected on each index directory
+	 * @return Results of the search (truncated if the limit has stopped the collection)
+	 * @throws IOException
+	 */
+	public Results getResults(String field, String term, Searcheable search, int limit) throws IOException
+	{
+		TripleStore store = getStore();
+		if (store != null) return getStoreResults(store, field, term, search);
+		
+		//The triples of a subject are all in its shard, while the subjects of an object may be in every shard
+		File[] dirs = getShards();
+		if (search == Searcheable.KEY) return getResults(getManager(term), field, term, search, limit);
+		if (dirs.length == 1) return getResults(getManagerOf(dirs[0]), field, term, search, limit);
+		return getShardedResults(dirs, field, term, search, limit);
+	}
+	
+	/**
+	 * Get the results of a search on every shard: the shards are searched concurrently and their results are read one after another
+	 * @param dirs Directories of the shards
+	 * @param field String value representing the field where to search
+	 * @param term String value representing the term to be searched
+	 * @param search Enum specifying whether to search subject (KEY) or object (VALUE) in the field
+	 * @param limit Max number of documents to be collected on each shard
+	 * @return Results of the search
+	 * @throws IOException
+	 */
+	private Results getShardedResults(File[] dirs, final String field, final String term, final Searcheable search, final int limit) throws IOException
+	{
+		List<Future<Results>> futures = new ArrayList<Future<Results>>();
+		List<Results> parts = new ArrayList<Results>();
+		boolean done = false;
+		try
+		{
+			for (File dir : dirs)
+			{
+				final SearcherManager manager = getManagerOf(dir);
+				futures.add(SHARD_EXECUTOR.submit(new Callable<Results>()
+				{
+					@Override
+					public Results call() throws Exception {return getResults(manager, field, term, search, limit);}
+				}));
+			}
+			for (Future<Results> future : futures) parts.add(future.get());
+			done = true;
+			return Results.concat(parts);
+		}
+		catch (InterruptedException e)
 		{
-			case KEY : toSearch = "subject"; break;
-			case VALUE: toSearch = "object"; break;
+			Thread.currentThread().interrupt();
+			throw new IOException("Search interrupted", e);
 		}
-		for (ScoreDoc scoreDoc : docs.scoreDocs)
+		catch (ExecutionException e)
 		{
-			Document doc = is.doc(scoreDoc.doc);
-		    IndexableField myFld = doc.getField(toSearch);
-		    if (myFld == null || !myFld.stringValue().equals(term)) continue;
-		    String name = doc.getField("subject").stringValue();
-		    for (IndexableField fld : doc.getFields())
-		    {
-		    	if (fld.name().equals("predicate") || fld.name().equals(toSearch)) continue;
-		    	String result = fld.stringValue();
-		    	Set<String> values = new TreeSet<String>();
-		    	if (map.containsKey(name)) values = map.get(name);
-		    	values.add(result.replaceAll("-", " "));
-		    	map.put(name, values);
-		    }
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new IOException(cause);
 		}
-		return map;
+		finally
+		{
+			if (!done)
+			{
+				//The searchers of the shards are released once their search has ended: the interrupt flag is cleared while waiting
+				//for them (otherwise a shard still searching would keep its searcher) and restored afterwards
+				boolean interrupted = Thread.interrupted();
+				for (Future<Results> future : futures)
+				{
+					while (true)
+					{
+						try {future.get().close(); break;}
+						catch (InterruptedException e) {interrupted = true;}
+						catch (Exception e) {break;}
+					}
+				}
+				if (interrupted) Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Get the results of a search on an index directory: the hits are marked by a non-scoring collector and read lazily
+	 * @param manager Searcher manager of the index directory (the whole index or one of its shards)
+	 * @param field String value representing the field where to search
+	 * @param term String value representing the term to be searched
+	 * @param search Enum specifying whether to search subject (KEY) or object (VALUE) in the field
+	 * @param limit Max number of documents to be collected
+	 * @return Results of the search
+	 * @throws IOException
+	 */
+	private Results getResults(SearcherManager manager, String field, String term, Searcheable search, int limit) throws IOException
+	{
+		IndexSearcher is = manager.acquire();
+		boolean release = true;
+		try
+		{
+			String predicate = encode(is, field);
+			if (predicate == null) return Results.of(null, Collections.<String>emptyList());
+			boolean entityLayout = isEntityLayout(is);
+			Term key = null;
+			switch(search)
+			{
+				case KEY : key = entityLayout ? new Term("subject", term) : new Term(FreeBaseIndexer.SUBJECT_PREDICATE, FreeBaseIndexer.compositeKey(term, predicate)); break;
+				case VALUE: key = new Term(FreeBaseIndexer.PREDICATE_OBJECT, FreeBaseIndexer.compositeKey(predicate, term)); break;
+			}
+			//Exact lookup on the composite key (indexes built before composite keys fall back to the predicate scan, whose hits are filtered later)
+			if (!entityLayout && is.getIndexReader().getDocCount(key.field()) == 0)
+			{
+				key = new Term("predicate", predicate);
+				limit = Query.NO_LIMIT;
+			}
+			//The postings of the term are walked while the results are read, without collecting the documents first
+			release = false;
+			return new IndexResults(manager, is, key, limit, entityLayout, predicate, term, search);
+		}
+		finally {if (release) manager.release(is);}
+	}
+	
+	/**
+	 * Get the results of a search on a triple store
+	 * @param store Triple store
+	 * @param field String value representing the field where to search
+	 * @param term String value representing the term to be searched
+	 * @param search Enum specifying whether to search subject (KEY) or object (VALUE) in the field
+	 * @return Results of the search
+	 */
+	private Results getStoreResults(TripleStore store, String field, String term, Searcheable search)
+	{
+		if (search == Searcheable.KEY) return Results.of(term, store.getObjects(term, field));
+		return Results.of(null, store.getSubjects(field, term));
+	}
+	
+	/**
+	 * Get the dictionary of the index read by an index searcher
+	 * @param is Index searcher
+	 * @return Dictionary of the index (null if its predicates are not encoded)
+	 * @throws IOException
+	 */
+	private Dictionary getDictionary(IndexSearcher is) throws IOException
+	{
+		IndexReader reader = is.getIndexReader();
+		if (!(reader instanceof DirectoryReader)) return null;
+		Map<String, String> commitData = ((DirectoryReader) reader).getIndexCommit().getUserData();
+		if (!Boolean.parseBoolean(commitData.get(FreeBaseIndexer.DICTIONARY))) return null;
+		Dictionary dictionary = getDictionary();
+		if (dictionary == null) throw new IOException("The dictionary of the index is missing in " + index);
+		return dictionary;
+	}
+	
+	/**
+	 * Get the dictionary saved into the index directory, loading it the first time it is required
+	 * @return Dictionary of the index directory (null if there is not)
+	 * @throws IOException
+	 */
+	private Dictionary getDictionary() throws IOException
+	{
+		Dictionary dictionary = this.dictionary;
+		if (dictionary != null || dictionaryMissing) return dictionary;
+		TripleStore store = getStore();
+		dictionary = store != null ? store.getDictionary() : Dictionary.load(new File(index));
+		if (dictionary == null) dictionaryMissing = true;
+		else this.dictionary = dictionary;
+		return dictionary;
+	}
+	
+	/**
+	 * Know whether a topic is a person from the people saved with the dictionary of the index, without searching the index
+	 * @param id String value of the ID of the topic
+	 * @return Whether the topic is a person or not (null if the dictionary of the index does not know the people, or the ID is not a MID it can encode)
+	 * @throws IOException
+	 */
+	public Boolean isPerson(String id) throws IOException
+	{
+		Dictionary dictionary = getDictionary();
+		if (dictionary == null || !dictionary.hasPersons() || Dictionary.toNumber(id) < 0) return null;
+		return dictionary.isPerson(id);
+	}
+	
+	/**
+	 * Get the name of a predicate as written in the index read by an index searcher
+	 * @param is Index searcher
+	 * @param field String value of the predicate
+	 * @return Name of the predicate in the index (null if the index does not contain it)
+	 * @throws IOException
+	 */
+	private String encode(IndexSearcher is, String field) throws IOException
+	{
+		Dictionary dictionary = getDictionary(is);
+		if (dictionary == null) return field;
+		int code = dictionary.getPredicateCode(field);
+		return code < 0 ? null : Dictionary.toTerm(code);
+	}
+	
+	/**
+	 * Know whether the index read by an index searcher has the entity layout (one document per subject)
+	 * @param is Index searcher
+	 * @return Whether the index has the entity layout or not
+	 * @throws IOException
+	 */
+	private boolean isEntityLayout(IndexSearcher is) throws IOException
+	{
+		IndexReader reader = is.getIndexReader();
+		if (!(reader instanceof DirectoryReader)) return false;
+		Map<String, String> commitData = ((DirectoryReader) reader).getIndexCommit().getUserData();
+		return FreeBaseIndexer.ENTITY_LAYOUT.equals(commitData.get(FreeBaseIndexer.LAYOUT));
+	}
+	
+	/**
+	 * Know whether the current index has the entity layout (one document per subject)
+	 * @return Whether the current index has the entity layout or not
+	 * @throws IOException
+	 */
+	public boolean isEntityLayout() throws IOException
+	{
+		if (getStore() != null) return false;
+		SearcherManager manager = getManager(null);
+		IndexSearcher is = manager.acquire();
+		try {return isEntityLayout(is);}
+		finally {manager.release(is);}
+	}
+	
+	/**
+	 * Get every property of an element with a single fetch of its document (entity layout) or a single range scan (triple store)
+	 * @param e Element whose properties are required
+	 * @return Map whose keys are predicates and whose values are the sets of objects related
+	 * @throws IOException
+	 */
+	public Map<String, Set<String>> getEntity(Element e) throws IOException
+	{
+		TripleStore store = getStore();
+		if (store != null)
+		{
+			Map<String, Set<String>> entity = new HashMap<String, Set<String>>();
+			for (Map.Entry<String, List<String>> property : store.getProperties(e.getId()).entrySet())
+			{
+				Set<String> values = new IdSet();
+				for (String value : property.getValue()) values.add(value.replaceAll("-", " "));
+				entity.put(property.getKey(), values);
+			}
+			return entity;
+		}
+		SearcherManager manager = getManager(e.getId());
+		IndexSearcher is = manager.acquire();
+		try
+		{
+			Map<String, Set<String>> entity = new HashMap<String, Set<String>>();
+			Dictionary dictionary = getDictionary(is);
+			Term key = new Term("subject", e.getId());
+			TopDocs docs = is.search(new TermQuery(key), Math.max(1, is.getIndexReader().docFreq(key)));
+			for (ScoreDoc scoreDoc : docs.scoreDocs)
+			{
+				for (IndexableField fld : is.doc(scoreDoc.doc).getFields())
+				{
+					if (fld.name().equals("subject")) continue;
+					String name = dictionary == null ? fld.name() : dictionary.getPredicate(Integer.parseInt(fld.name(), Character.MAX_RADIX));
+					Set<String> values = entity.get(name);
+					if (values == null) {values = new IdSet(); entity.put(name, values);}
+					values.add(fld.stringValue().replaceAll("-", " "));
+				}
+			}
+			return entity;
+		}
+		finally {manager.release(is);}
+	}
+	
+	/**
+	 * Get the values of a property of many elements with one pass over the index, instead of one search per element
+	 * @param elements Elements whose property is required
+	 * @param field String value representing the property
+	 * @return Map whose keys are the IDs of the elements and whose values are the sets of values (elements without the property are missing)
+	 * @throws IOException
+	 * @throws ParseException
+	 * @throws NotFoundException
+	 */
+	public Map<String, Set<String>> getProperties(Collection<? extends Element> elements, String field) throws IOException, ParseException, NotFoundException
+	{
+		List<String> ids = new ArrayList<String>();
+		for (Element e : elements) ids.add(e.getId());
+		return getCachedProperties(ids, field);
+	}
+	
+	/**
+	 * Get the values of a property of many subjects, taking from the caches those already searched
+	 * @param subjects String values of the subjects
+	 * @param field String value representing the property
+	 * @return Map whose keys are the subjects and whose values are the sets of values (subjects without the property are missing)
+	 * @throws IOException
+	 * @throws ParseException
+	 * @throws NotFoundException
+	 */
+	private Map<String, Set<String>> getCachedProperties(Collection<String> subjects, String field) throws IOException, ParseException, NotFoundException
+	{
+		long current = generation.get();
+		ResultCache cache = this.cache;
+		Map<String, Set<String>> properties = new HashMap<String, Set<String>>();
+		Set<String> ids = new TreeSet<String>();
+		for (String id : subjects)
+		{
+			Set<String> cached = cache.get(index, field, id, Searcheable.KEY, current);
+			if (cached != null) properties.put(id, cached);
+			else if (!misses.contains(index, field, id, Searcheable.KEY, current)) ids.add(id);
+		}
+		if (ids.isEmpty()) return properties;
+		Map<String, Set<String>> found = getProperties(ids, field);
+		for (String id : ids)
+		{
+			Set<String> values = found.get(id);
+			if (values == null) misses.add(index, field, id, Searcheable.KEY, current);
+			else properties.put(id, cache.put(index, field, id, Searcheable.KEY, current, values));
+		}
+		return properties;
+	}
+	
+	/**
+	 * Follow a path of properties from an element, joining each hop inside the index: the values of a property
+	 * are the subjects of the next one, and all of them are searched together (one batched lookup per hop,
+	 * however many subjects the hop has)
+	 * @param start Element from which the path starts
+	 * @param fields String values representing the properties of the path, in order
+	 * @return Map whose keys are the subjects of the last property and whose values are their values (empty if the path has no end)
+	 * @throws IOException
+	 * @throws ParseException
+	 * @throws NotFoundException
+	 */
+	public Map<String, Set<String>> getPath(Element start, String... fields) throws IOException, ParseException, NotFoundException
+	{
+		Collection<String> subjects = Collections.singleton(start.getId());
+		for (int i = 0; i < fields.length - 1; i++)
+		{
+			Set<String> next = new IdSet();
+			for (Set<String> values : getCachedProperties(subjects, fields[i]).values()) next.addAll(values);
+			if (next.isEmpty()) return new HashMap<String, Set<String>>();
+			subjects = next;
+		}
+		return getCachedProperties(subjects, fields[fields.length - 1]);
+	}
+	
+	/**
+	 * Get the values of a property of many subjects from the index
+	 * @param ids String values of the subjects
+	 * @param field String value representing the property
+	 * @return Map whose keys are the subjects and whose values are the sets of values (subjects without the property are missing)
+	 * @throws IOException
+	 * @throws ParseException
+	 * @throws NotFoundException
+	 */
+	private Map<String, Set<String>> getProperties(Set<String> ids, String field) throws IOException, ParseException, NotFoundException
+	{
+		Map<String, Set<String>> properties = new HashMap<String, Set<String>>();
+		TripleStore store = getStore();
+		if (store != null)
+		{
+			for (String id : ids)
+			{
+				List<String> objects = store.getObjects(id, field);
+				if (objects.isEmpty()) continue;
+				Set<String> values = new IdSet();
+				for (String object : objects) values.add(object.replaceAll("-", " "));
+				properties.put(id, values);
+			}
+			return properties;
+		}
+		
+		//The elements are grouped by the shard containing them
+		File[] dirs = getShards();
+		List<List<String>> shardIds = new ArrayList<List<String>>();
+		for (int i = 0; i < dirs.length; i++) shardIds.add(new ArrayList<String>());
+		for (String id : ids) shardIds.get(dirs.length == 1 ? 0 : FreeBaseIndexer.getShard(id, dirs.length)).add(id);
+		for (int i = 0; i < dirs.length; i++)
+			if (!shardIds.get(i).isEmpty()) getProperties(getManagerOf(dirs[i]), shardIds.get(i), field, properties);
+		return properties;
+	}
+	
+	/**
+	 * Get the values of a property of many subjects of an index directory, walking the terms of each segment once
+	 * @param manager Searcher manager of the index directory (the whole index or one of its shards)
+	 * @param ids String values of the subjects
+	 * @param field String value representing the property
+	 * @param properties Map where to put the values of each subject
+	 * @throws IOException
+	 * @throws ParseException
+	 * @throws NotFoundException
+	 */
+	private void getProperties(SearcherManager manager, List<String> ids, String field, Map<String, Set<String>> properties) throws IOException, ParseException, NotFoundException
+	{
+		IndexSearcher is = manager.acquire();
+		try
+		{
+			String predicate = encode(is, field);
+			if (predicate == null) return;
+			boolean entityLayout = isEntityLayout(is);
+			IndexReader reader = is.getIndexReader();
+			if (!entityLayout && reader.getDocCount(FreeBaseIndexer.SUBJECT_PREDICATE) == 0)
+			{
+				//Indexes built before composite keys can only be searched subject by subject
+				for (String id : ids)
+				{
+					Set<String> values = getAllElementsMap(manager, field, id, Searcheable.KEY).get(id);
+					if (values != null) properties.put(id, values);
+				}
+				return;
+			}
+			String keyField = entityLayout ? "subject" : FreeBaseIndexer.SUBJECT_PREDICATE;
+			String valueField = entityLayout ? predicate : "object";
+			Set<String> fieldsToLoad = Collections.singleton(valueField);
+			for (AtomicReaderContext leaf : reader.leaves())
+			{
+				AtomicReader leafReader = leaf.reader();
+				Terms terms = leafReader.terms(keyField);
+				if (terms == null) continue;
+				TermsEnum termsEnum = terms.iterator(null);
+				DocsEnum docs = null;
+				for (String id : ids)
+				{
+					if (!termsEnum.seekExact(new BytesRef(entityLayout ? id : FreeBaseIndexer.compositeKey(id, predicate)))) continue;
+					docs = termsEnum.docs(leafReader.getLiveDocs(), docs, DocsEnum.FLAG_NONE);
+					for (int doc = docs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docs.nextDoc())
+					{
+						for (String result : leafReader.document(doc, fieldsToLoad).getValues(valueField))
+						{
+							Set<String> values = properties.get(id);
+							if (values == null) {values = new IdSet(); properties.put(id, values);}
+							values.add(result.replaceAll("-", " "));
+						}
+					}
+				}
+			}
+		}
+		finally {manager.release(is);}
+	}
+	
+	/**
+	 * Get the labels of many elements with one pass over the index (topics are resolved together, the other elements by themselves)
+	 * @param elements Elements whose labels are required
+	 * @param lang Language object
+	 * @return Map whose keys are the IDs of the elements and whose values are their labels
+	 * @throws IOException
+	 * @throws UncorrectFormatLanguage
+	 * @throws NoSuchMethodException
+	 * @throws SecurityException
+	 * @throws InstantiationException
+	 * @throws IllegalAccessException
+	 * @throws IllegalArgumentException
+	 * @throws InvocationTargetException
+	 * @throws ParseException
+	 * @throws NotFoundException
+	 * @throws UncorrectInputException
+	 */
+	public Map<String, Set<String>> getLabels(Collection<? extends Element> elements, Language lang) throws IOException, UncorrectFormatLanguage, NoSuchMethodException, SecurityException,
+	InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, ParseException, NotFoundException, UncorrectInputException
+	{
+		List<Element> topics = new ArrayList<Element>();
+		for (Element e : elements) if (e instanceof Topic) topics.add(e);
+		Map<String, Set<String>> values = getProperties(topics, "label");
+		Map<String, Set<String>> labels = new HashMap<String, Set<String>>();
+		for (Element e : elements)
+		{
+			//A topic without labels has an empty set of labels
+			if (e instanceof Topic) labels.put(e.getId(), Topic.selectPerLang(values.get(e.getId()), lang));
+			else labels.put(e.getId(), e.getLabels(lang));
+		}
+		return labels;
 	}
 	
 	/**
-	 * (Singleton) Constructor
-	 * @return Single instance of Searcher
+	 * Get the searcher of the default index directory, creating it the first time it is required
+	 * @return Searcher of the default index directory
 	 */
 	static public Searcher getInstance()
 	{
-		if (s == null) s = new Searcher();
-		return s;
+		Searcher searcher = defaultSearcher;
+		if (searcher != null) return searcher;
+		synchronized (searchers)
+		{
+			if (defaultSearcher == null) defaultSearcher = new Searcher(DEFAULT_INDEX);
+			return defaultSearcher;
+		}
+	}
+	
+	/**
+	 * Get the searcher of a registered index directory
+	 * (each index directory has its own readers and caches, so different indexes are served concurrently)
+	 * @param index Name of index directory to be read
+	 * @return Searcher of the index directory
+	 * @throws UnknownIndexException if the index directory has not been registered
+	 */
+	static public Searcher getInstance(String index)
+	{
+		Searcher searcher = searchers.get(index);
+		if (searcher == null) throw new UnknownIndexException(index);
+		return searcher;
+	}
+	
+	/**
+	 * Open an index directory and register its searcher, so that it can be got by name
+	 * (nothing is registered if the index cannot be opened)
+	 * @param index Name of index directory to be read
+	 * @return Searcher of the index directory
+	 * @throws IOException if the index cannot be opened
+	 */
+	static public Searcher register(String index) throws IOException
+	{
+		synchronized (searchers)
+		{
+			Searcher searcher = searchers.get(index);
+			if (searcher != null) return searcher;
+			searcher = index.equals(DEFAULT_INDEX) ? getInstance() : new Searcher(index);
+			try
+			{
+				searcher.open();
+			}
+			catch (IOException e)
+			{
+				searcher.close();
+				throw e;
+			}
+			searchers.put(index, searcher);
+			return searcher;
+		}
 	}
 	
 	/**
@@ -220,7 +1046,7 @@ public class Searcher
 	 * @return Topic created by ID
 	 * @throws UncorrectIdException
 	 */
-	public Topic getTopic(String id) throws UncorrectIdException {return new Topic(id);}
+	public Topic getTopic(String id) throws UncorrectIdException {return new Topic(id, this);}
 	
 	/**
 	 * Get the set of topics that have required type 
@@ -235,11 +1061,10 @@ public class Searcher
 	 * @throws InvocationTargetException
 	 * @throws ParseException
 	 * @throws UncorrectIdException
-	 * @throws NotFoundException 
 	 */
 	public Set<Topic> getTopics(Type type)
 			throws IOException, NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException,
-			IllegalArgumentException, InvocationTargetException, ParseException, UncorrectIdException, NotFoundException
+			IllegalArgumentException, InvocationTargetException, ParseException, UncorrectIdException
 			{
 				return topicsProcessing("type", type.getId());
 			}
@@ -257,11 +1082,10 @@ public class Searcher
 	 * @throws IOException
 	 * @throws ParseException
 	 * @throws UncorrectIdException
-	 * @throws NotFoundException 
 	 */
 	public Set<Topic> getTopics(String label)
 			throws NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException, IllegalArgumentException,
-			InvocationTargetException, IOException, ParseException, UncorrectIdException, NotFoundException
+			InvocationTargetException, IOException, ParseException, UncorrectIdException
 			{
 				return getTopics(label, new Language("@en"));
 			}
@@ -280,11 +1104,10 @@ public class Searcher
 	 * @throws IOException
 	 * @throws ParseException
 	 * @throws UncorrectIdException
-	 * @throws NotFoundException 
 	 */
 	public Set<Topic> getTopics(String label, Language lang)
 			throws NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException, IllegalArgumentException,
-			InvocationTargetException, IOException, ParseException, UncorrectIdException, NotFoundException
+			InvocationTargetException, IOException, ParseException, UncorrectIdException
 	{
 		return topicsProcessing("label", label + ' ' + lang.getLang());
 	}
@@ -307,15 +1130,24 @@ public class Searcher
 	public Set<Type> getTypes(Topic topic) throws NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException, IllegalArgumentException,
 	InvocationTargetException, IOException, ParseException, UncorrectIdException, NotFoundException
 	{
-		Set<Type> types = new TreeSet<Type>();
-		Set<Element> elements = getAllElements(Topic.class, "type", topic.getId(), Searcheable.KEY);
+		Set<Type> types = new HashSet<Type>();
+		Set<Element> elements = getAllElements(Topic.class, "type", topic.getId(), Searcheable.KEY, Query.NO_LIMIT);
 		for (Element e : elements) types.add((Type) e);
 		return types;
 	}
 	
-	public Set<String> getQuery(Query q, boolean isPropertiesBased) throws IOException, ParseException, NotFoundException, UncorrectInputException
+	/**
+	 * Get the set of values related to the question formulated by an input query object
+	 * @param q Query object
+	 * @param isPropertiesBased Must be true (values, not elements, are searched)
+	 * @return Set of values related to the question (empty if there are not)
+	 * @throws IOException
+	 * @throws ParseException
+	 * @throws UncorrectInputException
+	 */
+	public Set<String> getQuery(Query q, boolean isPropertiesBased) throws IOException, ParseException, UncorrectInputException
 	{
-		if (isPropertiesBased) return getAllProperties(q.getElementClass(), q.getField(), q.getId(), q.getSearch());
+		if (isPropertiesBased) return getAllProperties(q.getElementClass(), q.getField(), q.getId(), q.getSearch(), q.getLimit());
 		throw new UncorrectInputException("You must invoke this method if you want to search properties!");
 	}
 
@@ -323,7 +1155,7 @@ public class Searcher
 	 * Get the set of elements related to the question formulated by an input query object
 	 * @param q Query object
 	 * @param  
-	 * @return Set of elements related to the question
+	 * @return Set of elements related to the question (for a search of the subject, NotFoundException is thrown if there are not)
 	 * @throws NoSuchMethodException
 	 * @throws SecurityException
 	 * @throws InstantiationException
@@ -340,6 +1172,31 @@ public class Searcher
 			IllegalArgumentException, InvocationTargetException,
 			IOException, NotFoundException, ParseException, UncorrectIdException
 	{
-		return getAllElements(q.getElementClass(), q.getField(), q.getId(), q.getSearch());
+		Set<Element> elements = findQuery(q);
+		if (elements.isEmpty() && q.getSearch() == Searcheable.KEY) throw new NotFoundException();
+		return elements;
+	}
+	
+	/**
+	 * Get the set of elements related to the question formulated by an input query object, without throwing if there are not
+	 * (preferable to getQuery(Query) when a miss is expected, since creating an exception is expensive)
+	 * @param q Query object
+	 * @return Set of elements related to the question (empty if there are not)
+	 * @throws NoSuchMethodException
+	 * @throws SecurityException
+	 * @throws InstantiationException
+	 * @throws IllegalAccessException
+	 * @throws IllegalArgumentException
+	 * @throws InvocationTargetException
+	 * @throws IOException
+	 * @throws ParseException
+	 * @throws UncorrectIdException
+	 */
+	public Set<Element> findQuery(Query q)
+			throws NoSuchMethodException, SecurityException, InstantiationException, IllegalAccessException,
+			IllegalArgumentException, InvocationTargetException,
+			IOException, ParseException, UncorrectIdException
+	{
+		return getAllElements(q.getElementClass(), q.getField(), q.getId(), q.getSearch(), q.getLimit());
 	}
 }
@@ -0,0 +1,16 @@
+package system.search;
+
+/**
+ * Unknown Index Exception: the index directory required has not been registered (or could not be opened)
+ * @author Francesco Raco
+ * 
+ */
+public class UnknownIndexException extends IllegalArgumentException
+{
+	/**
+	 * Constructor with the name of the index directory required
+	 * @param index Name of the index directory
+	 */
+	public UnknownIndexException(String index) {super("Unknown index: " + index);}
+
+}